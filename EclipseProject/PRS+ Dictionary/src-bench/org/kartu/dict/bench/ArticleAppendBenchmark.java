@@ -0,0 +1,55 @@
+package org.kartu.dict.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.IDictionaryArticle;
+import org.kartu.dict.stardict.StardictArticle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Combines many articles with the same keyword via {@link IDictionaryArticle#append(IDictionaryArticle)}
+ * (heavy duplication, e.g. dictionaries with separate article per meaning).
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArticleAppendBenchmark {
+	// number of articles sharing the same keyword
+	@Param({"10", "100", "1000"})
+	public int duplicates;
+	
+	private String[] translations;
+	
+	@Setup
+	public void setUp() {
+		SyntheticDictionary dictionary = new SyntheticDictionary(duplicates, 42);
+		translations = new String[duplicates];
+		for (int i = 0; i < duplicates; i++) {
+			translations[i] = dictionary.getText(i);
+		}
+	}
+	
+	@Benchmark
+	public IDictionaryArticle append() {
+		IDictionaryArticle result = new StardictArticle("keyword", translations[0], translations[0]);
+		for (int i = 1; i < duplicates; i++) {
+			result.append(new StardictArticle("keyword", translations[i], translations[i]));
+		}
+		return result;
+	}
+}
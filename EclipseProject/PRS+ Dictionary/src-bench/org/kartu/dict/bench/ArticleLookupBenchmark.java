@@ -0,0 +1,81 @@
+package org.kartu.dict.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.Converter;
+import org.kartu.dict.PrspdictReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up random words and reads their articles from converted synthetic dictionary,
+ * uncompressed (blockSize = 0) and with articles compressed in blocks of the given size.
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArticleLookupBenchmark {
+	@Param({"10000", "100000"})
+	public int size;
+	
+	// articles block size, 0 means uncompressed
+	@Param({"0", "4096", "16384", "65536"})
+	public int blockSize;
+	
+	private File dir;
+	private PrspdictReader reader;
+	private String[] words;
+	private int next;
+	
+	@Setup
+	public void setUp() throws Exception {
+		dir = SyntheticDictionary.createTempDir();
+		SyntheticDictionary dictionary = new SyntheticDictionary(size, 42);
+		File ifo = dictionary.writeStardict(dir, "bench", "t");
+		File prspdict = new File(dir, "bench" + Converter.EXT_PRSPDICT);
+		Converter converter = new Converter();
+		converter.setArticleBlockSize(blockSize);
+		converter.convert(ifo.getPath(), prspdict.getPath());
+		reader = new PrspdictReader(prspdict);
+		
+		// random order, consecutive lookups rarely hit the same block
+		List<String> unique = new ArrayList<String>(new LinkedHashSet<String>(dictionary.getKeywords()));
+		Collections.shuffle(unique, new Random(42));
+		words = unique.toArray(new String[unique.size()]);
+		System.out.println("\nFile size: " + prspdict.length() + " bytes");
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		reader.close();
+		SyntheticDictionary.delete(dir);
+	}
+	
+	@Benchmark
+	public String lookup() throws Exception {
+		String word = words[next];
+		next = (next + 1) % words.length;
+		return reader.getArticle(reader.find(word));
+	}
+}
@@ -0,0 +1,101 @@
+package org.kartu.dict.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.Converter;
+import org.kartu.dict.PrspdictReader;
+import org.kartu.dict.RadixSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ds.tree.FuzzyMatch;
+import ds.tree.RadixTreeImpl;
+
+/**
+ * Fuzzy lookup of misspelled words (one char replaced) in {@link RadixTreeImpl} and in the radix
+ * of converted (version 2.0) synthetic dictionary, top {@value #LIMIT} suggestions.
+ *
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FuzzyLookupBenchmark {
+	// number of suggestions
+	private static final int LIMIT = 10;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"1", "2"})
+	public int maxDistance;
+
+	private File dir;
+	private RadixTreeImpl<int[]> tree;
+	private PrspdictReader reader;
+	private String[] words;
+	private int next;
+
+	@Setup
+	public void setUp() throws Exception {
+		dir = SyntheticDictionary.createTempDir();
+		SyntheticDictionary dictionary = new SyntheticDictionary(size, 42);
+		File ifo = dictionary.writeStardict(dir, "bench", "t");
+		File prspdict = new File(dir, "bench" + Converter.EXT_PRSPDICT);
+		Converter converter = new Converter();
+		converter.setFormatVersion(RadixSerializer.NODE_FORMAT_2);
+		converter.convert(ifo.getPath(), prspdict.getPath());
+		reader = new PrspdictReader(prspdict);
+
+		List<String> unique = new ArrayList<String>(new LinkedHashSet<String>(dictionary.getKeywords()));
+		tree = RadixTreeBenchmark.newTree(unique);
+		Random random = new Random(42);
+		words = new String[1000];
+		for (int i = 0; i < words.length; i++) {
+			StringBuilder word = new StringBuilder(unique.get(random.nextInt(unique.size())));
+			word.setCharAt(random.nextInt(word.length()), 'q');
+			words[i] = word.toString();
+		}
+		System.out.println("\nKeywords: " + unique.size());
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		reader.close();
+		SyntheticDictionary.delete(dir);
+	}
+
+	@Benchmark
+	public List<FuzzyMatch<int[]>> tree() {
+		return tree.searchFuzzy(nextWord(), maxDistance, LIMIT);
+	}
+
+	@Benchmark
+	public List<FuzzyMatch<Integer>> reader() {
+		return reader.findFuzzy(nextWord(), maxDistance, LIMIT);
+	}
+
+	private String nextWord() {
+		String result = words[next];
+		next = (next + 1) % words.length;
+		return result;
+	}
+}
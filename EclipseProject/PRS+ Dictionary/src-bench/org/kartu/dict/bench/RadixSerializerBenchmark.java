@@ -0,0 +1,69 @@
+package org.kartu.dict.bench;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.PrspdictWriter;
+import org.kartu.dict.RadixSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ds.tree.RadixTreeImpl;
+
+/**
+ * Serializes radix tree of synthetic dictionary's keywords into a file, the way converter does it.
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RadixSerializerBenchmark {
+	private static final Charset KEY_CHARSET = Charset.forName("UTF-16LE");
+	
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+	
+	private RadixTreeImpl<int[]> tree;
+	private File dir;
+	private RandomAccessFile file;
+	
+	@Setup
+	public void setUp() throws Exception {
+		tree = RadixTreeBenchmark.newTree(new ArrayList<String>(
+				new LinkedHashSet<String>(new SyntheticDictionary(size, 42).getKeywords())));
+		dir = SyntheticDictionary.createTempDir();
+		file = new RandomAccessFile(new File(dir, "radix.bin"), "rw");
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		file.close();
+		SyntheticDictionary.delete(dir);
+	}
+	
+	@Benchmark
+	public int persistRadix() throws Exception {
+		PrspdictWriter writer = new PrspdictWriter(file.getChannel(), 0);
+		int result = RadixSerializer.getInstance().persistRadix(KEY_CHARSET, 0, 0, 0, tree.root, writer);
+		writer.flush();
+		return result;
+	}
+}
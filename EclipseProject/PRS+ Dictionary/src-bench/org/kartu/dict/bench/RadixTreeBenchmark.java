@@ -0,0 +1,85 @@
+package org.kartu.dict.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ds.tree.DuplicateKeyException;
+import ds.tree.RadixTreeImpl;
+
+/**
+ * {@link RadixTreeImpl} operations over all keywords of synthetic dictionary, each invocation
+ * inserts (finds, searches) every keyword once.
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RadixTreeBenchmark {
+	// length of prefixes used by searchPrefix
+	private static final int PREFIX_LEN = 3;
+	// max number of results of searchPrefix, the same as reader's word list page
+	private static final int PREFIX_LIMIT = 10;
+	
+	@Param({"10000", "100000", "1000000"})
+	public int size;
+	
+	private List<String> keywords;
+	private List<String> prefixes;
+	private RadixTreeImpl<int[]> tree;
+	
+	@Setup
+	public void setUp() throws DuplicateKeyException {
+		keywords = new ArrayList<String>(new LinkedHashSet<String>(new SyntheticDictionary(size, 42).getKeywords()));
+		prefixes = new ArrayList<String>(keywords.size());
+		for (String keyword : keywords) {
+			prefixes.add(keyword.substring(0, Math.min(PREFIX_LEN, keyword.length())));
+		}
+		tree = newTree(keywords);
+	}
+	
+	@Benchmark
+	public RadixTreeImpl<int[]> insert() throws DuplicateKeyException {
+		return newTree(keywords);
+	}
+	
+	@Benchmark
+	public void find(Blackhole bh) {
+		for (String keyword : keywords) {
+			bh.consume(tree.find(keyword));
+		}
+	}
+	
+	@Benchmark
+	public void searchPrefix(Blackhole bh) {
+		for (String prefix : prefixes) {
+			bh.consume(tree.searchPrefix(prefix, PREFIX_LIMIT));
+		}
+	}
+	
+	static RadixTreeImpl<int[]> newTree(List<String> keywords) throws DuplicateKeyException {
+		RadixTreeImpl<int[]> result = new RadixTreeImpl<int[]>();
+		for (int i = 0, n = keywords.size(); i < n; i++) {
+			result.insert(keywords.get(i), new int[] {i, i});
+		}
+		return result;
+	}
+}
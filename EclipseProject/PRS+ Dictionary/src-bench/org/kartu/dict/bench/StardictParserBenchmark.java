@@ -0,0 +1,106 @@
+package org.kartu.dict.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.IDictionaryArticle;
+import org.kartu.dict.IDictionaryParser;
+import org.kartu.dict.ParallelParser;
+import org.kartu.dict.stardict.StardictParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads (and renders) whole StarDict dictionary through {@link StardictParser#getNext()}, or through
+ * {@link ParallelParser} reading ranges of {@link StardictParser#split()} on several threads.
+ * Opening alone ({@link #open()}) shows the cost of memory mapping, heap is seen with -prof gc.
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StardictParserBenchmark {
+	// number of articles of synthetic dictionary
+	@Param({"10000", "100000"})
+	public int size;
+	
+	// sametypesequence: t - text, x - xdxf
+	@Param({"t", "x"})
+	public String type;
+	
+	// dict - plain (memory mapped) .dict, dz - dictzip .dict.dz (chunks inflated on demand)
+	@Param({"dict", "dz"})
+	public String data;
+	
+	// 0 - serial getNext(), n - ParallelParser over split() ranges, n threads parsing and inflating
+	@Param({"0", "4"})
+	public int threads;
+	
+	// .ifo file of a real dictionary, if set, size, type and data are ignored
+	@Param({""})
+	public String dictionary;
+	
+	private File dir;
+	private String ifo;
+	
+	@Setup
+	public void setUp() throws Exception {
+		if (dictionary.length() > 0) {
+			ifo = dictionary;
+		} else {
+			dir = SyntheticDictionary.createTempDir();
+			ifo = new SyntheticDictionary(size, 42).writeStardict(dir, "bench", type, "dz".equals(data)).getPath();
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		if (dir != null) {
+			SyntheticDictionary.delete(dir);
+		}
+	}
+	
+	@Benchmark
+	public int getNext(Blackhole bh) throws Exception {
+		StardictParser stardict = new StardictParser();
+		stardict.setThreads(Math.max(1, threads));
+		IDictionaryParser parser = threads > 0 ? new ParallelParser(stardict, threads) : stardict;
+		parser.open(ifo);
+		int n = 0;
+		try {
+			IDictionaryArticle article;
+			while ((article = parser.getNext()) != null) {
+				// xdxf is rendered on demand
+				bh.consume(article.getTranslation());
+				n++;
+			}
+		} finally {
+			parser.close();
+		}
+		return n;
+	}
+	
+	@Benchmark
+	public StardictParser open() throws Exception {
+		StardictParser parser = new StardictParser();
+		parser.setThreads(Math.max(1, threads));
+		parser.open(ifo);
+		parser.close();
+		return parser;
+	}
+}
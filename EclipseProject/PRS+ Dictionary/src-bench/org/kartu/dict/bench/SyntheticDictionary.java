@@ -0,0 +1,329 @@
+package org.kartu.dict.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Generates reproducible dictionaries shaped like real ones: keywords built from common syllables
+ * (so that they share prefixes like natural language words do), a few percent of duplicate keywords,
+ * multi line articles with xdxf markup.
+ *
+ * @author kartu
+ */
+public class SyntheticDictionary {
+	private static final String[] SYLLABLES = {
+		"a", "an", "ab", "ac", "al", "ar", "be", "bi", "ca", "ce", "co", "con", "de", "di", "dis", "e", "en",
+		"ex", "fa", "fo", "ge", "ha", "he", "i", "in", "im", "ka", "la", "le", "li", "lo", "ma", "me", "mi",
+		"mo", "na", "ne", "no", "o", "or", "pa", "pe", "per", "pre", "pro", "ra", "re", "ri", "ro", "sa",
+		"se", "si", "so", "sta", "su", "ta", "te", "ti", "to", "tra", "tu", "un", "ve", "vi", "\u00f6", "\u00fc", "\u0436", "\u0448"
+	};
+	private static final String[] POS = {"n.", "v.", "adj.", "adv."};
+	// Percentage of keywords that appear more than once
+	private static final int DUPLICATES_PERCENT = 5;
+	private static final String UTF_8 = "UTF-8";
+	// dictzip's default, compressed chunks have to fit into uint16
+	private static final int DICTZIP_CHUNK_LENGTH = 58315;
+
+	private final List<String> keywords;
+	private final Random random;
+
+	/**
+	 * @param size number of articles, including duplicates
+	 */
+	public SyntheticDictionary(int size, long seed) {
+		this.random = new Random(seed);
+		this.keywords = new ArrayList<String>(size);
+		int nUnique = size - size * DUPLICATES_PERCENT / 100;
+		for (int i = 0; i < nUnique; i++) {
+			keywords.add(newKeyword());
+		}
+		while (keywords.size() < size) {
+			keywords.add(keywords.get(random.nextInt(nUnique)));
+		}
+		Collections.shuffle(keywords, random);
+	}
+
+	/**
+	 * @return keywords in generation order, duplicates included
+	 */
+	public List<String> getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * @return xdxf markup of the article body (without "ar" tag)
+	 */
+	public String getXdxf(int index) {
+		String keyword = keywords.get(index);
+		Random r = new Random(index);
+		StringBuilder sb = new StringBuilder();
+		sb.append("<k>").append(keyword).append("</k>\n");
+		int nMeanings = 1 + r.nextInt(4);
+		for (int i = 1; i <= nMeanings; i++) {
+			sb.append(i).append(") <abr>").append(POS[r.nextInt(POS.length)]).append("</abr> ");
+			sb.append("<dtrn>").append(words(r, 1 + r.nextInt(6))).append("</dtrn>\n");
+			if (r.nextBoolean()) {
+				sb.append("<ex>").append(keyword).append(' ').append(words(r, 3 + r.nextInt(8))).append("</ex>\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return plain text article body
+	 */
+	public String getText(int index) {
+		Random r = new Random(index);
+		StringBuilder sb = new StringBuilder();
+		int nMeanings = 1 + r.nextInt(4);
+		for (int i = 1; i <= nMeanings; i++) {
+			sb.append(i).append(") ").append(POS[r.nextInt(POS.length)]).append(' ');
+			sb.append(words(r, 1 + r.nextInt(12))).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes StarDict dictionary (name.ifo, name.idx, name.dict)
+	 *
+	 * @param type sametypesequence, either "t" (text) or "x" (xdxf)
+	 * @return ifo file
+	 */
+	public File writeStardict(File dir, String name, String type) throws IOException {
+		return writeStardict(dir, name, type, false);
+	}
+
+	/**
+	 * Writes StarDict dictionary (name.ifo, name.idx and name.dict or name.dict.dz),
+	 * articles are in generation order, not in .idx order, like in most real dictionaries
+	 *
+	 * @param dictzip write dictzip name.dict.dz instead of name.dict
+	 * @return ifo file
+	 */
+	public File writeStardict(File dir, String name, String type, boolean dictzip) throws IOException {
+		boolean xdxf = "x".equals(type);
+		ByteArrayOutputStream dict = new ByteArrayOutputStream();
+		List<IdxEntry> idx = new ArrayList<IdxEntry>(keywords.size());
+		for (int i = 0, n = keywords.size(); i < n; i++) {
+			byte[] article = (xdxf ? getXdxf(i) : getText(i)).getBytes(UTF_8);
+			idx.add(new IdxEntry(keywords.get(i).getBytes(UTF_8), dict.size(), article.length));
+			dict.write(article);
+		}
+		// StarDict index is sorted
+		Collections.sort(idx);
+
+		if (dictzip) {
+			writeDictzip(new File(dir, name + ".dict.dz"), dict.toByteArray());
+		} else {
+			write(new File(dir, name + ".dict"), dict.toByteArray());
+		}
+		DataOutputStream idxOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, name + ".idx"))));
+		try {
+			for (IdxEntry entry : idx) {
+				idxOut.write(entry.keyword);
+				idxOut.write(0);
+				idxOut.writeInt(entry.offset);
+				idxOut.writeInt(entry.length);
+			}
+		} finally {
+			idxOut.close();
+		}
+
+		File ifo = new File(dir, name + ".ifo");
+		write(ifo, ("StarDict's dict ifo file\nversion=2.4.2\nwordcount=" + idx.size()
+				+ "\nidxfilesize=" + new File(dir, name + ".idx").length()
+				+ "\nbookname=" + name + "\nsametypesequence=" + type + "\n").getBytes(UTF_8));
+		return ifo;
+	}
+
+	/**
+	 * Writes XDXF visual dictionary
+	 */
+	public File writeXdxf(File dir, String name) throws IOException {
+		File result = new File(dir, name + ".xdxf");
+		Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(result)), UTF_8);
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			out.write("<xdxf lang_from=\"ENG\" lang_to=\"RUS\" format=\"visual\">\n");
+			out.write("<full_name>" + name + "</full_name>\n<description>Synthetic benchmark dictionary</description>\n");
+			for (int i = 0, n = keywords.size(); i < n; i++) {
+				out.write("<ar>");
+				out.write(getXdxf(i));
+				out.write("</ar>\n");
+			}
+			out.write("</xdxf>\n");
+		} finally {
+			out.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Creates empty temporary directory, deleted on exit
+	 */
+	public static File createTempDir() throws IOException {
+		File result = File.createTempFile("prspBench", "");
+		if (!result.delete() || !result.mkdir()) {
+			throw new IOException("Cannot create " + result);
+		}
+		result.deleteOnExit();
+		return result;
+	}
+
+	/**
+	 * Deletes directory created by {@link #createTempDir()} along with its files
+	 */
+	public static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private String newKeyword() {
+		StringBuilder sb = new StringBuilder();
+		// Most words are 2-4 syllables long, some are much longer
+		int nSyllables = 1 + random.nextInt(3) + (random.nextInt(10) == 0 ? random.nextInt(6) : 0);
+		for (int i = 0; i < nSyllables; i++) {
+			// Zipf like: low indices are picked more often
+			int idx = (int) (SYLLABLES.length * Math.pow(random.nextDouble(), 2));
+			sb.append(SYLLABLES[idx]);
+		}
+		if (random.nextInt(20) == 0) {
+			// phrases
+			sb.append(' ').append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static String words(Random r, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(i % 5 == 0 ? ", " : " ");
+			}
+			int nSyllables = 1 + r.nextInt(3);
+			for (int j = 0; j < nSyllables; j++) {
+				sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes gzip file whose deflate stream is flushed every {@link #DICTZIP_CHUNK_LENGTH} bytes,
+	 * with compressed chunk lengths in "RA" extra field (the way dictzip does it)
+	 */
+	private static void writeDictzip(File f, byte[] data) throws IOException {
+		int nChunks = (data.length + DICTZIP_CHUNK_LENGTH - 1) / DICTZIP_CHUNK_LENGTH;
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		int[] chunkLengths = new int[nChunks];
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		byte[] buf = new byte[DICTZIP_CHUNK_LENGTH * 2];
+		for (int i = 0; i < nChunks; i++) {
+			int offset = i * DICTZIP_CHUNK_LENGTH;
+			deflater.setInput(data, offset, Math.min(DICTZIP_CHUNK_LENGTH, data.length - offset));
+			int before = compressed.size();
+			if (i == nChunks - 1) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buf, 0, deflater.deflate(buf));
+				}
+			} else {
+				int n;
+				do {
+					n = deflater.deflate(buf, 0, buf.length, Deflater.FULL_FLUSH);
+					compressed.write(buf, 0, n);
+				} while (n == buf.length);
+			}
+			chunkLengths[i] = compressed.size() - before;
+			if (chunkLengths[i] > 0xffff) {
+				throw new IOException("Chunk " + i + " doesn't compress into 64K");
+			}
+		}
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// magic, deflate, FEXTRA, mtime, xfl, os
+		out.write(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 2, 3});
+		int raLength = 6 + nChunks * 2;
+		writeShort(out, 4 + raLength);
+		out.write('R');
+		out.write('A');
+		writeShort(out, raLength);
+		writeShort(out, 1);
+		writeShort(out, DICTZIP_CHUNK_LENGTH);
+		writeShort(out, nChunks);
+		for (int length : chunkLengths) {
+			writeShort(out, length);
+		}
+		compressed.writeTo(out);
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, data.length);
+		write(f, out.toByteArray());
+	}
+
+	// Little endian, as gzip header and trailer are
+	private static void writeShort(ByteArrayOutputStream out, int n) {
+		out.write(n);
+		out.write(n >>> 8);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int n) {
+		writeShort(out, n);
+		writeShort(out, n >>> 16);
+	}
+
+	private static void write(File f, byte[] data) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Single .idx record, ordered the way StarDict orders them (byte order of UTF-8 keyword)
+	 */
+	private static class IdxEntry implements Comparable<IdxEntry> {
+		final byte[] keyword;
+		final int offset;
+		final int length;
+
+		IdxEntry(byte[] keyword, int offset, int length) {
+			this.keyword = keyword;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int compareTo(IdxEntry o) {
+			for (int i = 0, n = Math.min(keyword.length, o.keyword.length); i < n; i++) {
+				int diff = (keyword[i] & 0xff) - (o.keyword[i] & 0xff);
+				if (diff != 0) {
+					return diff;
+				}
+			}
+			return keyword.length - o.keyword.length;
+		}
+	}
+}
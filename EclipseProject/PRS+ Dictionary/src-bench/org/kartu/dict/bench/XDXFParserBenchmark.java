@@ -0,0 +1,78 @@
+package org.kartu.dict.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.kartu.dict.IDictionaryArticle;
+import org.kartu.dict.xdxf.visual.XDXFParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads (and renders) whole XDXF visual dictionary through {@link XDXFParser#getNext()}.
+ * 
+ * @author kartu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class XDXFParserBenchmark {
+	// number of articles of synthetic dictionary
+	@Param({"10000", "100000"})
+	public int size;
+	
+	// .xdxf file of a real dictionary, if set, size is ignored
+	@Param({""})
+	public String dictionary;
+	
+	private File dir;
+	private String xdxf;
+	
+	@Setup
+	public void setUp() throws Exception {
+		if (dictionary.length() > 0) {
+			xdxf = dictionary;
+		} else {
+			dir = SyntheticDictionary.createTempDir();
+			xdxf = new SyntheticDictionary(size, 42).writeXdxf(dir, "bench").getPath();
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		if (dir != null) {
+			SyntheticDictionary.delete(dir);
+		}
+	}
+	
+	@Benchmark
+	public int getNext(Blackhole bh) throws Exception {
+		XDXFParser parser = new XDXFParser();
+		parser.open(xdxf);
+		int n = 0;
+		try {
+			IDictionaryArticle article;
+			while ((article = parser.getNext()) != null) {
+				bh.consume(article.getTranslation());
+				n++;
+			}
+		} finally {
+			parser.close();
+		}
+		return n;
+	}
+}
@@ -0,0 +1,98 @@
+package org.kartu.dict;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link KeyNormalizer} with desaturate() of PRS+ reader for every UTF-16 char.
+ * Tables are read from desaturate.c, the rest of desaturate() is mirrored below.
+ *
+ * Usage: KeyNormalizerCheck [path to desaturate.c]
+ *
+ * @author kartu
+ */
+public class KeyNormalizerCheck {
+	private static final String DEFAULT_SOURCE = "../../VisualStudioProject/PRS+ Dictionary/src/desaturate.c";
+
+	public static void main(String[] args) throws IOException {
+		List<int[]> maps = readMaps(new File(args.length > 0 ? args[0] : DEFAULT_SOURCE));
+		if (maps.size() != 2) {
+			throw new IllegalStateException("Expected 2 tables in desaturate.c, found " + maps.size());
+		}
+		int mismatches = 0;
+		for (int c = 0; c <= 0xffff; c++) {
+			int expected = desaturate(c, maps.get(0), maps.get(1));
+			int actual = KeyNormalizer.normalize((char) c);
+			if (expected != actual) {
+				if (mismatches < 20) {
+					System.out.println(String.format("U+%04X: expected U+%04X, got U+%04X", c, expected, actual));
+				}
+				mismatches++;
+			}
+		}
+		System.out.println(mismatches == 0 ? "OK" : mismatches + " mismatches");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	// desaturate.c, maps are indexed by ch - 0xc0 and ch - 0x1e00
+	private static int desaturate(int ch, int[] latin, int[] latinAdditional) {
+		if (ch > 0x40 && ch < 0x5b) {
+			return ch + 0x20;
+		}
+		if (ch >= 0xc0 && ch <= 0x240 && latin[ch - 0xc0] != 0) {
+			return latin[ch - 0xc0];
+		}
+		if (ch >= 0x1e00 && ch <= 0x1eff && latinAdditional[ch - 0x1e00] != 0) {
+			return latinAdditional[ch - 0x1e00];
+		}
+		if (ch >= 0x400 && ch < 0x410) {
+			return ch + 0x10 * 5;
+		}
+		if (ch >= 0x410 && ch < 0x430) {
+			return ch + 0x10 * 2;
+		}
+		return ch;
+	}
+
+	// Initializers of "uint16_t map[] = {...}" arrays, entries are either 'c' or 0
+	private static List<int[]> readMaps(File source) throws IOException {
+		byte[] bytes = new byte[(int) source.length()];
+		FileInputStream in = new FileInputStream(source);
+		try {
+			int done = 0;
+			while (done < bytes.length) {
+				int n = in.read(bytes, done, bytes.length - done);
+				if (n < 0) {
+					throw new IOException(source + " is truncated");
+				}
+				done += n;
+			}
+		} finally {
+			in.close();
+		}
+		String text = new String(bytes, "UTF-8");
+		List<int[]> result = new ArrayList<int[]>();
+		Matcher map = Pattern.compile("uint16_t map\\[\\] = \\{(.*?)\\};", Pattern.DOTALL).matcher(text);
+		while (map.find()) {
+			String body = map.group(1).replaceAll("//[^\n]*", "");
+			Matcher entry = Pattern.compile("'(.)'|\\b0\\b").matcher(body);
+			List<Integer> entries = new ArrayList<Integer>();
+			while (entry.find()) {
+				entries.add(entry.group(1) != null ? (int) entry.group(1).charAt(0) : 0);
+			}
+			int[] values = new int[entries.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = entries.get(i);
+			}
+			result.add(values);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,195 @@
+package org.kartu.dict;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts StarDict dictionary with 32 and 64 bit (idxoffsetbits=64) .idx offsets, with and without large file
+ * (1 based article numbers, index offsets relative to index base, 64 bit article table) and compares every article,
+ * word list record, folded and full text lookup against the plain conversion (32 bit .idx, no large file).
+ * Dictionary has clashing keywords (merged) and identical articles (stored once).
+ *
+ * @author kartu
+ */
+public class LargeFileCheck {
+	private static final int N_KEYWORDS = 3000;
+	private static final String SHARED_ARTICLE = "shared article, stored once";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException, DictionaryParserException {
+		File dir = File.createTempFile("largeFile", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		List<String> keywords = getKeywords();
+		try {
+			File idx32 = writeStardict(dir, "check32", keywords, false);
+			File idx64 = writeStardict(dir, "check64", keywords, true);
+			for (boolean indices : new boolean[] {false, true}) {
+				File reference = convert(idx32, new File(dir, "reference.prspdict"), indices, false);
+				File output = convert(idx64, new File(dir, "idx64.prspdict"), indices, false);
+				if (!Arrays.equals(read(reference), read(output))) {
+					fail("64 bit .idx" + (indices ? " with indices" : "") + " doesn't convert to the same file");
+				}
+				compare(keywords, reference, convert(idx32, new File(dir, "large32.prspdict"), indices, true),
+						"large file" + (indices ? " with indices" : ""));
+				compare(keywords, reference, convert(idx64, new File(dir, "large64.prspdict"), indices, true),
+						"large file of 64 bit .idx" + (indices ? " with indices" : ""));
+			}
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.out.println(failures == 0 ? "OK" : failures + " failures");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	// Converts with 1 thread, indices: front coded word list, folded and full text index
+	private static File convert(File ifo, File output, boolean indices, boolean largeFile) throws IOException, DictionaryParserException {
+		Converter converter = new Converter();
+		converter.setThreads(1);
+		converter.setLargeFile(largeFile);
+		if (indices) {
+			converter.setWordListRestartInterval(4);
+			converter.setFoldedIndex(true);
+			converter.setFullTextIndex(true);
+		}
+		converter.convert(ifo.getPath(), output.getPath());
+		return output;
+	}
+
+	private static void compare(List<String> keywords, File reference, File output, String name) throws IOException {
+		PrspdictReader expected = new PrspdictReader(reference);
+		PrspdictReader actual = new PrspdictReader(output);
+		try {
+			if (!actual.isLargeFile()) {
+				fail(name + " is not marked as large file");
+				return;
+			}
+			for (String keyword : keywords) {
+				int article = actual.find(keyword);
+				if (article < 0 || !actual.getArticle(article).equals(expected.getArticle(expected.find(keyword)))) {
+					fail(name + ": article of " + keyword + " differs");
+				}
+				PrspdictReader.WordListEntry record = actual.getWords(actual.findWordListOffset(keyword), 1).get(0);
+				PrspdictReader.WordListEntry expectedRecord = expected.getWords(expected.findWordListOffset(keyword), 1).get(0);
+				if (!record.keyword.equals(expectedRecord.keyword) || !record.shortTranslation.equals(expectedRecord.shortTranslation)) {
+					fail(name + ": word list record of " + keyword + " differs");
+				}
+				if (expected.hasFoldedIndex()) {
+					if (!getArticles(actual, actual.findFolded(keyword)).equals(getArticles(expected, expected.findFolded(keyword)))) {
+						fail(name + ": folded lookup of " + keyword + " differs");
+					}
+					if (!getArticles(actual, actual.findFullText(keyword)).equals(getArticles(expected, expected.findFullText(keyword)))) {
+						fail(name + ": full text lookup of " + keyword + " differs");
+					}
+				}
+			}
+		} finally {
+			expected.close();
+			actual.close();
+		}
+	}
+
+	private static List<String> getArticles(PrspdictReader reader, int[] offsets) throws IOException {
+		List<String> result = new ArrayList<String>(offsets.length);
+		for (int offset : offsets) {
+			result.add(reader.getArticle(offset));
+		}
+		return result;
+	}
+
+	private static void fail(String message) {
+		if (failures++ < 20) {
+			System.out.println(message);
+		}
+	}
+
+	// sorted, as StarDict index is, with upper case variants for the folded index
+	private static List<String> getKeywords() {
+		List<String> result = new ArrayList<String>(N_KEYWORDS);
+		for (int i = 0; i < N_KEYWORDS; i++) {
+			result.add((i % 3 == 0 ? "W" : "w") + String.format("%05d", i) + (i % 5 == 0 ? "\u0436" : ""));
+		}
+		return result;
+	}
+
+	private static String getArticle(int i, int copy) {
+		if (i % 7 == 0) {
+			return SHARED_ARTICLE;
+		}
+		StringBuilder sb = new StringBuilder("w").append(String.format("%05d", i)).append(" copy ").append(copy).append(':');
+		// articles of different length, some longer than a block
+		for (int j = 0, n = (i * 37) % 500; j < n; j++) {
+			sb.append(" word").append(j % 17);
+		}
+		return sb.append('\n').toString();
+	}
+
+	// .ifo, .idx and .dict of the keywords, every 11th keyword has two articles
+	private static File writeStardict(File dir, String name, List<String> keywords, boolean offsets64) throws IOException {
+		DataOutputStream idx = new DataOutputStream(new FileOutputStream(new File(dir, name + ".idx")));
+		FileOutputStream dict = new FileOutputStream(new File(dir, name + ".dict"));
+		int nEntries = 0;
+		try {
+			long offset = 0;
+			for (int i = 0; i < keywords.size(); i++) {
+				for (int copy = 0; copy < (i % 11 == 0 ? 2 : 1); copy++) {
+					byte[] article = getArticle(i, copy).getBytes("UTF-8");
+					dict.write(article);
+					idx.write(keywords.get(i).getBytes("UTF-8"));
+					idx.write(0);
+					if (offsets64) {
+						idx.writeLong(offset);
+					} else {
+						idx.writeInt((int) offset);
+					}
+					idx.writeInt(article.length);
+					offset += article.length;
+					nEntries++;
+				}
+			}
+		} finally {
+			idx.close();
+			dict.close();
+		}
+		File ifo = new File(dir, name + ".ifo");
+		Writer out = new OutputStreamWriter(new FileOutputStream(ifo), "UTF-8");
+		try {
+			out.write("StarDict's dict ifo file\nversion=" + (offsets64 ? "3.0.0" : "2.4.2") + "\nwordcount=" + nEntries
+					+ "\nidxfilesize=0\nbookname=" + name + "\nsametypesequence=m\n"
+					+ (offsets64 ? "idxoffsetbits=64\n" : ""));
+		} finally {
+			out.close();
+		}
+		return ifo;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] result = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int done = 0;
+			int n;
+			while (done < result.length && (n = in.read(result, done, result.length - done)) > 0) {
+				done += n;
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+}
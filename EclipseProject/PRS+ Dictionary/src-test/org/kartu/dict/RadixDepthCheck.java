@@ -0,0 +1,103 @@
+package org.kartu.dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import ds.tree.RadixTreeImpl;
+
+/**
+ * Inserts a chain of nested keywords (each one is the previous one plus a char, so that the tree
+ * is DEPTH nodes deep, the last keyword is DEPTH chars long) and a few keywords thousands of chars long,
+ * then looks them up, lists and completes prefixes and serializes the radix, all on a thread with small stack.
+ * Neither the tree nor the serializer may recurse per level.
+ *
+ * @author kartu
+ */
+public class RadixDepthCheck {
+	private static final int DEPTH = 20000;
+	private static final int LONG_KEY_LENGTH = 8000;
+	private static final long STACK_SIZE = 256 * 1024;
+
+	private static Throwable failure;
+
+	public static void main(String[] args) throws InterruptedException {
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (Throwable t) {
+					failure = t;
+				}
+			}
+		}, "radixDepthCheck", STACK_SIZE);
+		thread.start();
+		thread.join();
+		if (failure != null) {
+			failure.printStackTrace();
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void check() throws Exception {
+		RadixTreeImpl<int[]> tree = new RadixTreeImpl<int[]>();
+		// chain of nested keys, key i is the first i + 1 chars of chain. Longest goes first, each shorter one
+		// splits the top node, so that building the tree doesn't take DEPTH descents of growing depth
+		StringBuilder chain = new StringBuilder(DEPTH);
+		for (int i = 0; i < DEPTH; i++) {
+			chain.append((char) ('a' + i % 26));
+		}
+		for (int i = DEPTH - 1; i >= 0; i--) {
+			tree.insert(chain.substring(0, i + 1), new int[] {i, i});
+		}
+		// branches off the deepest node and a few long keys of their own
+		tree.insert(chain + "!", new int[] {DEPTH, DEPTH});
+		for (int i = 0; i < 3; i++) {
+			StringBuilder key = new StringBuilder(LONG_KEY_LENGTH);
+			while (key.length() < LONG_KEY_LENGTH) {
+				key.append((char) ('0' + i)).append(key.length());
+			}
+			tree.insert(key.toString(), new int[] {DEPTH + 1 + i, 0});
+		}
+		check(tree.getSize() == DEPTH + 4, "size " + tree.getSize());
+		// root, the chain, its branch and the long keys
+		check(tree.getNodeCount() == 1 + DEPTH + 1 + 3, "node count " + tree.getNodeCount());
+
+		String deepest = chain.toString();
+		for (int i : new int[] {0, 1, DEPTH / 2, DEPTH - 1}) {
+			int[] value = tree.find(deepest.substring(0, i + 1));
+			check(value != null && value[0] == i, "find at depth " + i);
+		}
+		check(tree.find(deepest + "?") == null, "find of missing key");
+		check(tree.contains(deepest + "!"), "contains");
+
+		List<int[]> prefixed = tree.searchPrefix(deepest.substring(0, DEPTH - 10), 100);
+		check(prefixed.size() == 12, "prefix search found " + prefixed.size());
+		check(deepest.equals(tree.complete(deepest.substring(0, DEPTH - 1) + deepest.charAt(DEPTH - 1))), "complete");
+
+		// serialize both node formats
+		File file = File.createTempFile("radixDepth", ".tmp");
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			int nodeFormats[] = {RadixSerializer.NODE_FORMAT_1, RadixSerializer.NODE_FORMAT_2};
+			for (int nodeFormat : nodeFormats) {
+				PrspdictWriter writer = new PrspdictWriter(out.getChannel(), 0);
+				int end = RadixSerializer.getInstance().persistRadix(nodeFormat, Converter.KEY_CHARSET, 0, 0, 0, tree.root, writer);
+				writer.flush();
+				check(end > (long) DEPTH * 2 + 3 * LONG_KEY_LENGTH * 2, "radix of format " + nodeFormat + " is " + end + " bytes");
+			}
+		} finally {
+			out.close();
+			file.delete();
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException("Failed: " + message);
+		}
+	}
+}
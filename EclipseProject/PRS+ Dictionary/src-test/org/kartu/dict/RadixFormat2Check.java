@@ -0,0 +1,113 @@
+package org.kartu.dict;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import ds.tree.FuzzyMatch;
+
+/**
+ * Converts StarDict dictionary whose keywords start with chars all over UTF-16 range (ASCII, CJK, Hangul,
+ * private use area etc.) into version 2.0 prspdict and looks every keyword up.
+ * Child table of version 2.0 nodes is binary searched with unsigned char compares,
+ * chars from U+8000 on have to be sorted after the others.
+ *
+ * @author kartu
+ */
+public class RadixFormat2Check {
+	private static final String[] KEYWORDS = {
+		"a", "ab", "b", "z", "\u00e9t\u00e9", "\u0436\u0443\u043a",
+		"\u4e00", "\u4e00\u4e8c", "\u4e01", "\u9fa5",
+		"\uac00", "\uac01", "\uac00\ub098", "\ud55c\uad6d\uc5b4",
+		"\ue000", "\ue000x", "\uff21", "\uffe0"
+	};
+
+	public static void main(String[] args) throws IOException, DictionaryParserException {
+		File dir = File.createTempFile("radixFormat2", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		File ifo = writeStardict(dir, "check");
+		File output = new File(dir, "check" + Converter.EXT_PRSPDICT);
+		int failures = 0;
+		try {
+			Converter converter = new Converter();
+			converter.setThreads(1);
+			converter.setFormatVersion(RadixSerializer.NODE_FORMAT_2);
+			converter.convert(ifo.getPath(), output.getPath());
+
+			PrspdictReader reader = new PrspdictReader(output);
+			try {
+				for (String keyword : KEYWORDS) {
+					int article = reader.find(keyword);
+					if (article < 0 || !reader.getArticle(article).equals(getArticle(keyword))) {
+						System.out.println("Not found: " + escape(keyword));
+						failures++;
+					}
+					List<FuzzyMatch<Integer>> matches = reader.findFuzzy(keyword, 0, 1);
+					if (matches.size() != 1 || !matches.get(0).key.equals(keyword)) {
+						System.out.println("Not found by fuzzy search: " + escape(keyword));
+						failures++;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.out.println(failures == 0 ? "OK" : failures + " failures");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static String getArticle(String keyword) {
+		return "article of " + keyword;
+	}
+
+	private static String escape(String s) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			result.append(String.format("\\u%04x", (int) s.charAt(i)));
+		}
+		return result.toString();
+	}
+
+	// .ifo, .idx and .dict of the keywords
+	private static File writeStardict(File dir, String name) throws IOException {
+		DataOutputStream idx = new DataOutputStream(new FileOutputStream(new File(dir, name + ".idx")));
+		FileOutputStream dict = new FileOutputStream(new File(dir, name + ".dict"));
+		try {
+			int offset = 0;
+			for (String keyword : KEYWORDS) {
+				byte[] article = getArticle(keyword).getBytes("UTF-8");
+				dict.write(article);
+				idx.write(keyword.getBytes("UTF-8"));
+				idx.write(0);
+				idx.writeInt(offset);
+				idx.writeInt(article.length);
+				offset += article.length;
+			}
+		} finally {
+			idx.close();
+			dict.close();
+		}
+		File ifo = new File(dir, name + ".ifo");
+		Writer out = new OutputStreamWriter(new FileOutputStream(ifo), "UTF-8");
+		try {
+			out.write("StarDict's dict ifo file\nversion=2.4.2\nwordcount=" + KEYWORDS.length
+					+ "\nidxfilesize=0\nbookname=" + name + "\nsametypesequence=m\n");
+		} finally {
+			out.close();
+		}
+		return ifo;
+	}
+}
@@ -0,0 +1,42 @@
+package ds.tree;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key found by fuzzy search along with its value and edit distance from the searched word.
+ * Matches are ordered by distance.
+ *
+ * @author kartu
+ */
+public class FuzzyMatch<T> implements Comparable<FuzzyMatch<T>> {
+    public final String key;
+    public final T value;
+    public final int distance;
+
+    public FuzzyMatch(String key, T value, int distance) {
+        this.key = key;
+        this.value = value;
+        this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(FuzzyMatch<T> o) {
+        return distance < o.distance ? -1 : distance == o.distance ? 0 : 1;
+    }
+
+    /**
+     * Sorts matches by distance (stable, matches with equal distance keep their order)
+     *
+     * @return up to limit closest matches
+     */
+    public static <T> List<FuzzyMatch<T>> closest(List<FuzzyMatch<T>> matches, int limit) {
+        Collections.sort(matches);
+        return matches.size() > limit ? matches.subList(0, limit) : matches;
+    }
+
+    @Override
+    public String toString() {
+        return key + " (" + distance + ")";
+    }
+}
@@ -0,0 +1,150 @@
+package ds.tree;
+
+/**
+ * Levenshtein automaton of a word, simulated by rows of the edit distance matrix: state after reading
+ * a key prefix is the row of distances between that prefix and all prefixes of the word.
+ * Rows are kept per depth (length of the key prefix), so that a depth first walk of a tree can step
+ * into a child and come back to its parent without recomputing anything. Once the smallest distance
+ * in the row exceeds the maximum, no key with that prefix can match and the whole subtree is skipped.
+ * Only cells within the max distance of the diagonal are computed. When no edits are left, only a few chars
+ * can follow, {@link #accepts(int, char)} rules out the rest before anything is computed.
+ *
+ * @author kartu
+ */
+public class LevenshteinAutomaton {
+    private final String word;
+    private final int maxDistance;
+    // rows[depth][i] - distance between the key prefix of length depth and word prefix of length i
+    private int[][] rows;
+    // smallest distance of each row
+    private int[] mins;
+
+    public LevenshteinAutomaton(String word, int maxDistance) {
+        this.word = word;
+        this.maxDistance = maxDistance;
+        rows = new int[Math.max(16, word.length() + maxDistance + 1)][];
+        mins = new int[rows.length];
+        rows[0] = new int[word.length() + 1];
+        for (int i = 0; i <= word.length(); i++) {
+            rows[0][i] = i;
+        }
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Reads char c following the key prefix of length depth
+     *
+     * @return true if a key continuing with c can still be within the max distance
+     */
+    public boolean step(int depth, char c) {
+        if (depth + 1 == rows.length) {
+            int[][] newRows = new int[rows.length * 2][];
+            System.arraycopy(rows, 0, newRows, 0, rows.length);
+            rows = newRows;
+            int[] newMins = new int[newRows.length];
+            System.arraycopy(mins, 0, newMins, 0, mins.length);
+            mins = newMins;
+        }
+        int[] row = rows[depth];
+        int[] next = rows[depth + 1];
+        if (next == null) {
+            next = rows[depth + 1] = new int[row.length];
+        }
+        // only cells within maxDistance of the diagonal can be small enough, the rest are maxDistance + 1
+        int tooFar = maxDistance + 1;
+        int n = row.length - 1;
+        int lo = Math.max(1, depth + 1 - maxDistance);
+        int hi = Math.min(n, depth + 1 + maxDistance);
+        next[0] = Math.min(depth + 1, tooFar);
+        if (lo > 1) {
+            next[lo - 1] = tooFar;
+        }
+        int min = lo > 1 ? tooFar : next[0];
+        for (int i = lo; i <= hi; i++) {
+            int distance = Math.min(next[i - 1], row[i]) + 1;
+            int substitution = row[i - 1] + (word.charAt(i - 1) == c ? 0 : 1);
+            if (substitution < distance) {
+                distance = substitution;
+            }
+            if (distance > tooFar) {
+                distance = tooFar;
+            }
+            next[i] = distance;
+            if (distance < min) {
+                min = distance;
+            }
+        }
+        if (hi < n) {
+            next[hi + 1] = tooFar;
+        }
+        mins[depth + 1] = min;
+        return min <= maxDistance;
+    }
+
+    /**
+     * Lists chars that can follow the key prefix of length depth when no edits are left, so that children
+     * can be looked up by char instead of being checked one by one
+     *
+     * @param chars receives distinct chars, must have room for 2 * maxDistance + 1 of them
+     * @return number of chars, -1 if an edit is left and any char can follow
+     */
+    public int getNextChars(int depth, char[] chars) {
+        if (mins[depth] < maxDistance) {
+            return -1;
+        }
+        int result = 0;
+        int[] row = rows[depth];
+        for (int i = Math.max(0, depth - maxDistance), n = Math.min(word.length() - 1, depth + maxDistance); i <= n; i++) {
+            if (row[i] == maxDistance) {
+                char c = word.charAt(i);
+                int j = 0;
+                while (j < result && chars[j] != c) {
+                    j++;
+                }
+                if (j == result) {
+                    chars[result++] = c;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Quick check of the char following the key prefix of length depth, nothing is computed
+     *
+     * @return false if a key continuing with c cannot be within the max distance, true if it might
+     */
+    public boolean accepts(int depth, char c) {
+        if (mins[depth] < maxDistance) {
+            // there is an edit left, any char will do
+            return true;
+        }
+        // no edits left, c must be the next char of the word after one of the prefixes at max distance
+        int[] row = rows[depth];
+        for (int i = Math.max(0, depth - maxDistance), n = Math.min(word.length() - 1, depth + maxDistance); i <= n; i++) {
+            if (row[i] == maxDistance && word.charAt(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return distance between the word and the key prefix of length depth (read by {@link #step(int, char)})
+     */
+    public int getDistance(int depth) {
+        // cells away from the diagonal aren't computed
+        int n = word.length();
+        return Math.abs(depth - n) > maxDistance ? maxDistance + 1 : rows[depth][n];
+    }
+
+    /**
+     * @return true if the key prefix of length depth is within the max distance of the word
+     */
+    public boolean isMatch(int depth) {
+        return getDistance(depth) <= maxDistance;
+    }
+}
@@ -25,6 +25,7 @@ THE SOFTWARE.
 package ds.tree;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This interface represent the operation of a radix tree. A radix tree,
@@ -85,6 +86,16 @@ public interface RadixTree<T> {
      * @return The list of values those key start with the given prefix
      */
     public ArrayList<T> searchPrefix(String prefix, int recordLimit);
+
+    /**
+     * Search for keys within the given edit distance of the key, closest first.
+     * 
+     * @param key The key to search for
+     * @param maxDistance The maximum number of inserted, deleted or replaced characters
+     * @param limit The limit for the results
+     * @return Up to limit matches, ordered by distance
+     */
+    public List<FuzzyMatch<T>> searchFuzzy(String key, int maxDistance, int limit);
     
     /**
      * Return the size of the Radix tree
@@ -31,6 +31,7 @@ import java.util.Formattable;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -148,7 +149,8 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
     }
 
     /**
-     * Recursively insert the key in the radix tree.
+     * Insert the key in the radix tree, descending iteratively, so that
+     * depth of the tree is not limited by the stack size.
      * 
      * @param key The key to be inserted
      * @param node The current node
@@ -162,29 +164,28 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
 
         // we are either at the root node
         // or we need to go down the tree
-        if (node.getKey().equals("") == true || numberOfMatchingCharacters == 0 || (numberOfMatchingCharacters < key.length() && numberOfMatchingCharacters >= node.getKey().length())) {
-            boolean flag = false;
+        while (node.getKey().equals("") == true || numberOfMatchingCharacters == 0 || (numberOfMatchingCharacters < key.length() && numberOfMatchingCharacters >= node.getKey().length())) {
             String newText = key.substring(numberOfMatchingCharacters, key.length());
-            for (RadixTreeNode<T> child : node.getChildern()) {
-                if (child.getKey().startsWith(newText.charAt(0) + "")) {
-                    flag = true;
-                    insert(newText, child, value);
-                    break;
-                }
-            }
+            RadixTreeNode<T> next = findChild(node, newText);
 
             // just add the node as the child of the current node
-            if (flag == false) {
+            if (next == null) {
                 RadixTreeNode<T> n = new RadixTreeNode<T>();
                 n.setKey(newText);
                 n.setReal(true);
                 n.setValue(value);
 
                 node.getChildern().add(n);
+                return;
             }
+            
+            key = newText;
+            node = next;
+            numberOfMatchingCharacters = node.getNumberOfMatchingCharacters(key);
         }
+        
         // there is a exact match just make the current node as data node
-        else if (numberOfMatchingCharacters == key.length() && numberOfMatchingCharacters == node.getKey().length()) {
+        if (numberOfMatchingCharacters == key.length() && numberOfMatchingCharacters == node.getKey().length()) {
             if (node.isReal() == true) {
                 throw new DuplicateKeyException("Duplicate key");
             }
@@ -269,24 +270,81 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
     }
 
     private RadixTreeNode<T> searchPefix(String key, RadixTreeNode<T> node) {
-        RadixTreeNode<T> result = null;
+        while (node != null) {
+            int numberOfMatchingCharacters = node.getNumberOfMatchingCharacters(key);
+            
+            if (numberOfMatchingCharacters == key.length() && numberOfMatchingCharacters <= node.getKey().length()) {
+                return node;
+            } else if (node.getKey().equals("") == true
+                    || (numberOfMatchingCharacters < key.length() && numberOfMatchingCharacters >= node.getKey().length())) {
+                key = key.substring(numberOfMatchingCharacters, key.length());
+                node = findChild(node, key);
+            } else {
+                node = null;
+            }
+        }
 
-        int numberOfMatchingCharacters = node.getNumberOfMatchingCharacters(key);
-        
-        if (numberOfMatchingCharacters == key.length() && numberOfMatchingCharacters <= node.getKey().length()) {
-            result = node;
-        } else if (node.getKey().equals("") == true
-                || (numberOfMatchingCharacters < key.length() && numberOfMatchingCharacters >= node.getKey().length())) {
-            String newText = key.substring(numberOfMatchingCharacters, key.length());
-            for (RadixTreeNode<T> child : node.getChildern()) {
-                if (child.getKey().startsWith(newText.charAt(0) + "")) {
-                    result = searchPefix(newText, child);
-                    break;
+        return null;
+    }
+    
+    /**
+     * Finds keys within the given edit (Levenshtein) distance of the key. Tree is walked depth first along with
+     * {@link LevenshteinAutomaton}, subtrees no key of which can be close enough are skipped.
+     *
+     * @param maxDistance maximum number of inserted, deleted or replaced chars, e.g. 1 or 2
+     * @param limit maximum number of matches
+     * @return up to limit closest matches, ordered by distance, matches of the same distance in tree order
+     */
+    public List<FuzzyMatch<T>> searchFuzzy(String key, int maxDistance, int limit) {
+        List<FuzzyMatch<T>> matches = new ArrayList<FuzzyMatch<T>>();
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(key, maxDistance);
+        // nodes and number of chars of keys preceding them, key of the node being visited
+        ArrayList<RadixTreeNode<T>> stack = new ArrayList<RadixTreeNode<T>>();
+        ArrayList<Integer> depths = new ArrayList<Integer>();
+        StringBuilder path = new StringBuilder();
+        stack.add(root);
+        depths.add(0);
+        while (!stack.isEmpty()) {
+            RadixTreeNode<T> node = stack.remove(stack.size() - 1);
+            int depth = depths.remove(depths.size() - 1);
+            // the rest of the path belongs to already visited subtree
+            path.setLength(depth);
+            String nodeKey = node.getKey();
+            boolean reachable = true;
+            for (int i = 0, n = nodeKey.length(); i < n && reachable; i++) {
+                reachable = automaton.step(depth++, nodeKey.charAt(i));
+            }
+            if (!reachable) {
+                continue;
+            }
+            path.append(nodeKey);
+            if (node.isReal() && automaton.isMatch(depth)) {
+                matches.add(new FuzzyMatch<T>(path.toString(), node.getValue(), automaton.getDistance(depth)));
+            }
+            List<RadixTreeNode<T>> children = node.getChildern();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                RadixTreeNode<T> child = children.get(i);
+                if (automaton.accepts(depth, child.getKey().charAt(0))) {
+                    stack.add(child);
+                    depths.add(depth);
                 }
             }
         }
+        return FuzzyMatch.closest(matches, limit);
+    }
 
-        return result;
+    /**
+     * @return child whose key starts with the first character of the given text or null, if there is none
+     */
+    private RadixTreeNode<T> findChild(RadixTreeNode<T> node, String text) {
+        char first = text.charAt(0);
+        for (RadixTreeNode<T> child : node.getChildern()) {
+            String childKey = child.getKey();
+            if (childKey.length() > 0 && childKey.charAt(0) == first) {
+                return child;
+            }
+        }
+        return null;
     }
 
     public boolean contains(String key) {
@@ -314,7 +372,7 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
     }
 
     /**
-     * recursively visit the tree based on the supplied "key". calls the Visitor
+     * visit the tree based on the supplied "key" (iteratively). calls the Visitor
      * for the node those key matches the given prefix
      * 
      * @param prefix
@@ -328,22 +386,22 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
     private <R> void visit(String prefix, Visitor<T, R> visitor,
             RadixTreeNode<T> parent, RadixTreeNode<T> node) {
         
-    	int numberOfMatchingCharacters = node.getNumberOfMatchingCharacters(prefix);
-
-        // if the node key and prefix match, we found a match!
-        if (numberOfMatchingCharacters == prefix.length() && numberOfMatchingCharacters == node.getKey().length()) {
-            visitor.visit(prefix, parent, node);
-        } else if (node.getKey().equals("") == true // either we are at the
-                // root
-                || (numberOfMatchingCharacters < prefix.length() && numberOfMatchingCharacters >= node.getKey().length())) { // OR we need to
-            // traverse the childern
-            String newText = prefix.substring(numberOfMatchingCharacters, prefix.length());
-            for (RadixTreeNode<T> child : node.getChildern()) {
-                // recursively search the child nodes
-                if (child.getKey().startsWith(newText.charAt(0) + "")) {
-                    visit(newText, visitor, node, child);
-                    break;
-                }
+        while (node != null) {
+        	int numberOfMatchingCharacters = node.getNumberOfMatchingCharacters(prefix);
+    
+            // if the node key and prefix match, we found a match!
+            if (numberOfMatchingCharacters == prefix.length() && numberOfMatchingCharacters == node.getKey().length()) {
+                visitor.visit(prefix, parent, node);
+                return;
+            } else if (node.getKey().equals("") == true // either we are at the
+                    // root
+                    || (numberOfMatchingCharacters < prefix.length() && numberOfMatchingCharacters >= node.getKey().length())) { // OR we need to
+                // traverse the childern
+                prefix = prefix.substring(numberOfMatchingCharacters, prefix.length());
+                parent = node;
+                node = findChild(node, prefix);
+            } else {
+                return;
             }
         }
     }
@@ -352,6 +410,21 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
         return size;
     }
 
+    /**
+     * @return number of nodes, including the root and non-real nodes
+     */
+    public long getNodeCount() {
+        long result = 0;
+        ArrayList<RadixTreeNode<T>> stack = new ArrayList<RadixTreeNode<T>>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            RadixTreeNode<T> node = stack.remove(stack.size() - 1);
+            result++;
+            stack.addAll(node.getChildern());
+        }
+        return result;
+    }
+
     /**
      * Display the Trie on console.
      * 
@@ -411,30 +484,24 @@ public class RadixTreeImpl<T> implements RadixTree<T>, Formattable {
 	}    
 	
 	private String complete(String key, RadixTreeNode<T> node, String base) {
-        int i = 0;
-        int keylen = key.length();
-        int nodelen = node.getKey().length();
-
-        while (i < keylen && i < nodelen) {
-            if (key.charAt(i) != node.getKey().charAt(i)) {
-                break;
+        StringBuilder completed = new StringBuilder(base);
+        while (node != null) {
+            int keylen = key.length();
+            int nodelen = node.getKey().length();
+            int i = node.getNumberOfMatchingCharacters(key);
+    
+            if (i == keylen && i <= nodelen) {
+                return completed.append(node.getKey()).toString();
             }
-            i++;
-        }
-
-        if (i == keylen && i <= nodelen) {
-            return base + node.getKey();
-        }
-        else if (nodelen == 0 || (i < keylen && i >= nodelen)) {
-            String beginning = key.substring(0, i);
-            String ending = key.substring(i, keylen);
-            for (RadixTreeNode<T> child : node.getChildern()) {
-                if (child.getKey().startsWith(ending.charAt(0) + "")) {
-                    return complete(ending, child, base + beginning);
-                }
+            else if (nodelen == 0 || (i < keylen && i >= nodelen)) {
+                completed.append(key, 0, i);
+                key = key.substring(i, keylen);
+                node = findChild(node, key);
+            } else {
+                node = null;
             }
         }
         
         return "";
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
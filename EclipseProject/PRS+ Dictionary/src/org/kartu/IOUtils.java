@@ -40,6 +40,28 @@ public class IOUtils {
 		return 4;
 	}
 
+	// Number of bytes String.getBytes("UTF-8") would produce, without encoding
+	public static long utf8Length(CharSequence s) {
+		long result = 0;
+		for (int i = 0, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				result += 1;
+			} else if (c < 0x800) {
+				result += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				result += 4;
+				i++;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// malformed surrogate is replaced with '?'
+				result += 1;
+			} else {
+				result += 3;
+			}
+		}
+		return result;
+	}
+
 	// Writes content of 
 	public static void writeRaf(RandomAccessFile raf, RandomAccessFile rafInput) throws IOException {
 		long len = rafInput.length();
@@ -0,0 +1,165 @@
+package org.kartu;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Staged pipeline: source thread feeds items to a pool of workers, results are handed out
+ * strictly in the source order, so the consumer sees exactly what single threaded run would produce.
+ *
+ * With single thread, items are processed on the caller's thread, no threads are started at all.
+ *
+ * @author kartu
+ *
+ * @param <I> input item
+ * @param <O> processed item
+ */
+public class OrderedPipeline<I, O> {
+	/**
+	 * Work done by the pool, must be thread safe and must not return null.
+	 */
+	public interface Stage<I, O> {
+		O process(I item) throws Exception;
+	}
+
+	// Marks end of the source
+	private final Future<O> END = new FutureTask<O>(new Callable<O>() {
+		@Override
+		public O call() {
+			return null;
+		}
+	});
+
+	private final Iterator<I> source;
+	private final Stage<I, O> stage;
+	private final ExecutorService workers;
+	private final BlockingQueue<Future<O>> results;
+	private final Thread feeder;
+	private boolean finished;
+
+	/**
+	 * Starts the pipeline
+	 *
+	 * @param name thread name prefix
+	 * @param source source of items, is iterated only by feeder thread
+	 * @param stage processing to be done in parallel
+	 * @param nThreads number of worker threads
+	 * @param capacity max number of items in flight
+	 */
+	public OrderedPipeline(final String name, Iterator<I> source, Stage<I, O> stage, int nThreads, int capacity) {
+		this.source = source;
+		this.stage = stage;
+		if (nThreads <= 1) {
+			this.workers = null;
+			this.results = null;
+			this.feeder = null;
+			return;
+		}
+
+		this.results = new ArrayBlockingQueue<Future<O>>(capacity);
+		this.workers = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int n = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-worker-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.feeder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				feed();
+			}
+		}, name + "-feeder");
+		this.feeder.setDaemon(true);
+		this.feeder.start();
+	}
+
+	/**
+	 * @return next processed item (in the source order) or null, if end of the source was reached
+	 * @throws ExecutionException if either source or stage has failed
+	 */
+	public O take() throws ExecutionException, InterruptedException {
+		if (finished) {
+			return null;
+		}
+
+		if (workers == null) {
+			if (!source.hasNext()) {
+				finished = true;
+				return null;
+			}
+			try {
+				return stage.process(source.next());
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+		}
+
+		Future<O> result = results.take();
+		if (result == END) {
+			finished = true;
+			workers.shutdown();
+			return null;
+		}
+		return result.get();
+	}
+
+	/**
+	 * Stops threads, waits for the feeder to leave the source.
+	 */
+	public void close() throws InterruptedException {
+		finished = true;
+		if (workers == null) {
+			return;
+		}
+		feeder.interrupt();
+		workers.shutdownNow();
+		feeder.join();
+	}
+
+	// Feeder thread body, iterates the source, keeping results queue in the source order
+	private void feed() {
+		try {
+			try {
+				while (source.hasNext()) {
+					final I item = source.next();
+					results.put(workers.submit(new Callable<O>() {
+						@Override
+						public O call() throws Exception {
+							return stage.process(item);
+						}
+					}));
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (final Throwable t) {
+				// Hand failure over to the consumer
+				FutureTask<O> failure = new FutureTask<O>(new Callable<O>() {
+					@Override
+					public O call() throws Exception {
+						if (t instanceof Exception) {
+							throw (Exception) t;
+						}
+						throw (Error) t;
+					}
+				});
+				failure.run();
+				results.put(failure);
+			}
+			results.put(END);
+		} catch (InterruptedException e) {
+			// closed by consumer
+		}
+	}
+}
@@ -6,6 +6,8 @@ public class Article implements IDictionaryArticle {
 	protected String shortTranslation;
 	protected String translation;
 	protected String keyword;
+	// Markup the translation is rendered from, null if not known
+	protected String source;
 
 	public Article() {
 		super();
@@ -18,20 +20,39 @@ public class Article implements IDictionaryArticle {
 
 	@Override
 	public String getTranslation() {
+		render();
 		return translation;
 	}
 
 	@Override
 	public String getShortTranslation() {
+		render();
 		return shortTranslation;
 	}
 
+	@Override
+	public String getSource() {
+		return source;
+	}
+
 	@Override
 	public void append(IDictionaryArticle article) {
+		// sources are combined the same way translations are, rendering might drop them
+		String appendedSource = source != null ? article.getSource() : null;
+		String mergedSource = appendedSource != null ? source + '\n' + appendedSource : null;
+		render();
 		if (!this.translation.endsWith("\n")) {
 			this.translation += "\n";
 		}
 		this.translation += article.getTranslation();
+		this.source = mergedSource;
+	}
+
+	/**
+	 * Fills translation and short translation, if rendering was deferred.
+	 * Articles that keep source markup override it, so that rendering can run on worker threads.
+	 */
+	protected void render() {
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,203 @@
+package org.kartu.dict;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * Writes compressed articles section: articles (length + UTF-8 article, the same as in uncompressed file)
+ * are packed into blocks of limited size, each block is deflated (zlib) independently, so that reading
+ * an article means inflating a single block. Article that doesn't fit into a block gets a block of its own.
+ *
+ * Blocks are followed by the block table, entry per block plus the terminating one:
+ * 		offset of the compressed block (uint32)
+ * 		uncompressed size of the block (uint32), 0 for the terminating entry
+ * 
+ * Article pointer is 1 based block number (high 16 bits) and offset of the article in the uncompressed
+ * block (low 16 bits), so that 0 still means "no article".
+ *
+ * Blocks are compressed on worker threads, written in order.
+ *
+ * @author kartu
+ */
+class ArticleBlockWriter {
+	// offset in block takes 16 bits of the pointer
+	static final int MAX_BLOCK_SIZE = 1 << 16;
+	private static final int MAX_BLOCKS = 0xffff;
+	// Compressed blocks in flight per worker thread
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private final PrspdictWriter out;
+	private final int blockSize;
+	private final ExecutorService compressors;
+	private final int maxPending;
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private final ByteArrayOutputStream block;
+	// offset + uncompressed size per block
+	private int[] table = new int[1024];
+	private int nBlocks;
+	private int nWritten;
+	private long tableOffset = -1;
+	private long uncompressedBytes;
+	private long compressedBytes;
+
+	/**
+	 * @param position position of the first block
+	 * @param blockSize max uncompressed size of the block, up to {@link #MAX_BLOCK_SIZE}
+	 * @param nThreads number of threads compressing blocks, 1 means calling thread
+	 */
+	ArticleBlockWriter(FileChannel channel, long position, int blockSize, int nThreads) {
+		if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE + ": " + blockSize);
+		}
+		this.out = new PrspdictWriter(channel, position);
+		this.blockSize = blockSize;
+		this.block = new ByteArrayOutputStream(blockSize);
+		this.maxPending = nThreads * BLOCKS_PER_THREAD;
+		this.compressors = nThreads <= 1 ? null : Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int n = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "compressor-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Adds article to the current block
+	 * 
+	 * @param content UTF-8 article
+	 * @return pointer to the article
+	 */
+	int add(byte[] content) throws IOException, ExecutionException, InterruptedException {
+		if (block.size() > 0 && block.size() + 4 + content.length > blockSize) {
+			flushBlock();
+		}
+		if (nBlocks >= MAX_BLOCKS) {
+			throw new IllegalStateException("Articles don't fit into " + MAX_BLOCKS + " blocks, use bigger block size");
+		}
+		int pointer = ((nBlocks + 1) << 16) | block.size();
+		int len = content.length;
+		block.write(len);
+		block.write(len >>> 8);
+		block.write(len >>> 16);
+		block.write(len >>> 24);
+		block.write(content, 0, len);
+		return pointer;
+	}
+
+	/**
+	 * Writes the last block and block table
+	 * 
+	 * @return offset right after the block table
+	 */
+	long finish() throws IOException, ExecutionException, InterruptedException {
+		if (block.size() > 0) {
+			flushBlock();
+		}
+		while (!pending.isEmpty()) {
+			writeBlock(pending.removeFirst().get());
+		}
+		tableOffset = out.getPosition();
+		for (int i = 0; i < nBlocks; i++) {
+			out.writeInt(table[i * 2]);
+			out.writeInt(table[i * 2 + 1]);
+		}
+		// terminating entry, end of the last block
+		out.writeInt((int) tableOffset);
+		out.writeInt(0);
+		out.flush();
+		return out.getPosition();
+	}
+
+	/**
+	 * @return offset of the block table, valid after {@link #finish()}
+	 */
+	long getTableOffset() {
+		return tableOffset;
+	}
+
+	int getBlockCount() {
+		return nBlocks;
+	}
+
+	long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+
+	long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	// Hands current block over to compression, writes blocks compressed so far
+	private void flushBlock() throws IOException, ExecutionException, InterruptedException {
+		final byte[] data = block.toByteArray();
+		block.reset();
+		if (table.length < (nBlocks + 1) * 2) {
+			int[] newTable = new int[table.length * 2];
+			System.arraycopy(table, 0, newTable, 0, table.length);
+			table = newTable;
+		}
+		table[nBlocks * 2 + 1] = data.length;
+		nBlocks++;
+		uncompressedBytes += data.length;
+		if (compressors == null) {
+			writeBlock(compress(data));
+			return;
+		}
+		pending.add(compressors.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return compress(data);
+			}
+		}));
+		while (pending.size() > maxPending) {
+			writeBlock(pending.removeFirst().get());
+		}
+	}
+
+	private void writeBlock(byte[] compressed) throws IOException {
+		long position = out.getPosition();
+		if (position + compressed.length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Compressed articles section is too big: " + position);
+		}
+		table[nWritten * 2] = (int) position;
+		nWritten++;
+		out.write(compressed);
+		compressedBytes += compressed.length;
+	}
+
+	static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				result.write(buf, 0, n);
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	void close() {
+		if (compressors != null) {
+			compressors.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.kartu.dict;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Remembers where article contents were stored, by MD5 of the encoded article, so that identical articles
+ * (inflected forms, "see X" stubs) are stored once and all their keywords point to the same copy.
+ *
+ * Digests are kept in open addressing table, about 40 bytes per distinct article.
+ *
+ * @author kartu
+ */
+class ArticleDeduplicator {
+	private static final int INITIAL_CAPACITY = 1024;
+	static final int NONE = -1;
+
+	private static final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	// digest halves and offsets, NONE marks free slot
+	private long[] hi = new long[INITIAL_CAPACITY];
+	private long[] lo = new long[INITIAL_CAPACITY];
+	private int[] offsets = newOffsets(INITIAL_CAPACITY);
+	private int size;
+
+	/**
+	 * @return digest of the encoded article, safe to call from multiple threads
+	 */
+	static byte[] digest(byte[] content) {
+		return digest.get().digest(content);
+	}
+
+	/**
+	 * @return offset (or pointer) of the article with the given digest, -1 if there is none
+	 */
+	int get(byte[] articleDigest) {
+		long h = toLong(articleDigest, 0);
+		long l = toLong(articleDigest, 8);
+		int mask = offsets.length - 1;
+		for (int i = slot(l, mask); offsets[i] != NONE; i = (i + 1) & mask) {
+			if (hi[i] == h && lo[i] == l) {
+				return offsets[i];
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Remembers offset of the article with the given digest, that isn't known yet (see {@link #get(byte[])})
+	 *
+	 * @param offset offset (or pointer) of the stored article, not negative
+	 */
+	void put(byte[] articleDigest, int offset) {
+		insert(toLong(articleDigest, 0), toLong(articleDigest, 8), offset);
+		// load factor 1/2
+		if (++size * 2 > offsets.length) {
+			grow();
+		}
+	}
+
+	private void insert(long h, long l, int offset) {
+		int mask = offsets.length - 1;
+		int i = slot(l, mask);
+		while (offsets[i] != NONE) {
+			i = (i + 1) & mask;
+		}
+		hi[i] = h;
+		lo[i] = l;
+		offsets[i] = offset;
+	}
+
+	private static int slot(long l, int mask) {
+		return (int) (l ^ (l >>> 32)) & mask;
+	}
+
+	private void grow() {
+		long[] oldHi = hi;
+		long[] oldLo = lo;
+		int[] oldOffsets = offsets;
+		int capacity = oldOffsets.length * 2;
+		hi = new long[capacity];
+		lo = new long[capacity];
+		offsets = newOffsets(capacity);
+		for (int i = 0; i < oldOffsets.length; i++) {
+			if (oldOffsets[i] != NONE) {
+				insert(oldHi[i], oldLo[i], oldOffsets[i]);
+			}
+		}
+	}
+
+	private static int[] newOffsets(int capacity) {
+		int[] result = new int[capacity];
+		Arrays.fill(result, NONE);
+		return result;
+	}
+
+	private static long toLong(byte[] b, int offset) {
+		long result = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			result = (result << 8) | (b[i] & 0xff);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,339 @@
+package org.kartu.dict;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Converts many dictionaries in one JVM, several of them at a time.
+ * Failure of one dictionary doesn't affect the others, each one gets its own {@link Result}.
+ *
+ * @author kartu
+ */
+public class BatchConverter {
+	private static final Logger log = Logger.getLogger(BatchConverter.class);
+	private static final String MANIFEST_COMMENT = "#";
+
+	private int nJobs = 1;
+	private int nThreads = 1;
+	private long externalMemoryBudget = 0;
+	private File tempDir = null;
+	private boolean incremental = false;
+	private Locale locale = Locale.ROOT;
+	private int formatVersion = RadixSerializer.NODE_FORMAT_1;
+	private int radixClusterSize = RadixSerializer.NO_CLUSTERS;
+	private int articleBlockSize = 0;
+	private boolean deduplicate = true;
+	private int wordListRestartInterval = 0;
+	private boolean foldedIndex = false;
+	private boolean fullTextIndex = false;
+	private boolean largeFile = false;
+
+	/**
+	 * Outcome of a single conversion
+	 */
+	public static class Result {
+		public final String input;
+		public final String output;
+		public final ConversionMetrics metrics = new ConversionMetrics();
+		public long nArticles;
+		public long millis;
+		// null if conversion has succeeded
+		public Throwable error;
+
+		Result(String input, String output) {
+			this.input = input;
+			this.output = output;
+		}
+
+		public boolean isOK() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * @param nJobs number of dictionaries converted at the same time
+	 */
+	public void setJobs(int nJobs) {
+		this.nJobs = nJobs;
+	}
+
+	/**
+	 * @param nThreads number of rendering threads of each conversion
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * @param externalMemoryBudget memory budget of each conversion, see {@link Converter#setExternalMemoryBudget(long)}
+	 */
+	public void setExternalMemoryBudget(long externalMemoryBudget) {
+		this.externalMemoryBudget = externalMemoryBudget;
+	}
+
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * @see Converter#setLocale(Locale)
+	 */
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+	}
+
+	/**
+	 * @see Converter#setFormatVersion(int)
+	 */
+	public void setFormatVersion(int formatVersion) {
+		this.formatVersion = formatVersion;
+	}
+
+	/**
+	 * @see Converter#setRadixClusterSize(int)
+	 */
+	public void setRadixClusterSize(int radixClusterSize) {
+		this.radixClusterSize = radixClusterSize;
+	}
+
+	/**
+	 * @see Converter#setArticleBlockSize(int)
+	 */
+	public void setArticleBlockSize(int articleBlockSize) {
+		this.articleBlockSize = articleBlockSize;
+	}
+
+	/**
+	 * @see Converter#setDeduplicate(boolean)
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * @see Converter#setWordListRestartInterval(int)
+	 */
+	public void setWordListRestartInterval(int wordListRestartInterval) {
+		this.wordListRestartInterval = wordListRestartInterval;
+	}
+
+	/**
+	 * @see Converter#setFoldedIndex(boolean)
+	 */
+	public void setFoldedIndex(boolean foldedIndex) {
+		this.foldedIndex = foldedIndex;
+	}
+
+	/**
+	 * @see Converter#setFullTextIndex(boolean)
+	 */
+	public void setFullTextIndex(boolean fullTextIndex) {
+		this.fullTextIndex = fullTextIndex;
+	}
+
+	/**
+	 * @see Converter#setLargeFile(boolean)
+	 */
+	public void setLargeFile(boolean largeFile) {
+		this.largeFile = largeFile;
+	}
+
+	/**
+	 * @see Converter#setIncremental(boolean)
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Lists dictionaries to be converted.
+	 *
+	 * @param source either directory (searched recursively for supported files)
+	 * 		or manifest file (one "input file[TAB output file]" per line, relative paths are relative to the manifest)
+	 * @param outputDir where to put converted files (if not set by the manifest), null means next to the input file,
+	 * 		subdirectories of the source directory are recreated in it
+	 * @throws IOException if two dictionaries would be converted into the same file
+	 */
+	public static List<Result> collect(File source, File outputDir) throws IOException {
+		List<Result> result = new ArrayList<Result>();
+		if (source.isDirectory()) {
+			collectDirectory(source, outputDir, result);
+			checkOutputs(result);
+			return result;
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith(MANIFEST_COMMENT)) {
+					continue;
+				}
+				String[] columns = line.split("\t");
+				File input = resolve(source.getParentFile(), columns[0].trim());
+				String output = columns.length > 1
+						? resolve(source.getParentFile(), columns[1].trim()).getPath()
+						: getOutputName(input, outputDir);
+				result.add(new Result(input.getPath(), output));
+			}
+		} finally {
+			in.close();
+		}
+		checkOutputs(result);
+		return result;
+	}
+
+	// conversions of the same output would overwrite each other (at the same time with several jobs)
+	private static void checkOutputs(List<Result> jobs) throws IOException {
+		Map<String, String> inputs = new HashMap<String, String>();
+		for (Result job : jobs) {
+			String output = new File(job.output).getCanonicalPath();
+			String previous = inputs.put(output, job.input);
+			if (previous != null) {
+				throw new IOException("Both " + previous + " and " + job.input + " would be converted to " + job.output);
+			}
+		}
+	}
+
+	/**
+	 * Converts given dictionaries, blocks until all of them are done.
+	 */
+	public List<Result> convert(List<Result> jobs) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(nJobs);
+		for (final Result job : jobs) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					convert(job);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		return jobs;
+	}
+
+	/**
+	 * Prints one line per dictionary
+	 *
+	 * @return number of failed conversions
+	 */
+	public static int printReport(List<Result> results, PrintStream out) {
+		int nFailed = 0;
+		for (Result result : results) {
+			if (result.isOK()) {
+				out.println(String.format("OK\t%d articles\t%.1fs\t%s", result.nArticles, result.millis / 1000.0, result.input));
+			} else {
+				nFailed++;
+				out.println(String.format("FAILED\t%s\t%s", result.error, result.input));
+			}
+		}
+		out.println(String.format("%d converted, %d failed", results.size() - nFailed, nFailed));
+		return nFailed;
+	}
+
+	/**
+	 * Writes metrics of all conversions as JSON array
+	 */
+	public static void writeMetrics(List<Result> results, Writer out) throws IOException {
+		List<ConversionMetrics> metrics = new ArrayList<ConversionMetrics>(results.size());
+		for (Result result : results) {
+			result.metrics.set("ok", result.isOK());
+			if (!result.isOK()) {
+				result.metrics.set("error", result.error.toString());
+			}
+			metrics.add(result.metrics);
+		}
+		ConversionMetrics.toJson(metrics, out);
+	}
+
+	private void convert(Result job) {
+		long start = System.currentTimeMillis();
+		Converter converter = new Converter();
+		converter.setThreads(nThreads);
+		converter.setExternalMemoryBudget(externalMemoryBudget);
+		converter.setTempDir(tempDir);
+		converter.setIncremental(incremental);
+		converter.setLocale(locale);
+		converter.setFormatVersion(formatVersion);
+		converter.setRadixClusterSize(radixClusterSize);
+		converter.setArticleBlockSize(articleBlockSize);
+		converter.setDeduplicate(deduplicate);
+		converter.setWordListRestartInterval(wordListRestartInterval);
+		converter.setFoldedIndex(foldedIndex);
+		converter.setFullTextIndex(fullTextIndex);
+		converter.setLargeFile(largeFile);
+		// process wide numbers would mix concurrent jobs
+		job.metrics.setShared(nJobs > 1);
+		File output = new File(job.output);
+		boolean existed = output.exists();
+		try {
+			log.info("Converting " + job.input + " => " + job.output);
+			File dir = output.getParentFile();
+			if (dir != null) {
+				dir.mkdirs();
+			}
+			job.nArticles = converter.convert(job.input, job.output, job.metrics);
+		} catch (Throwable t) {
+			// including errors: running out of memory on one dictionary shouldn't stop the others
+			log.error("Failed to convert " + job.input, t);
+			job.error = t;
+			// incremental conversion leaves the previous output intact, only file created by this job is deleted
+			if (!incremental && existed) {
+				log.warn("Output existed before the conversion and might have been overwritten partially: " + job.output);
+			} else if (!incremental && output.exists() && !output.delete()) {
+				log.warn("Cannot delete partial output: " + job.output);
+			}
+		}
+		job.millis = System.currentTimeMillis() - start;
+	}
+
+	// outputDir mirrors subdirectories of dir
+	private static void collectDirectory(File dir, File outputDir, List<Result> result) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			if (f.isDirectory()) {
+				collectDirectory(f, outputDir != null ? new File(outputDir, f.getName()) : null, result);
+			} else if (Converter.createParser(f.getName()) != null) {
+				result.add(new Result(f.getPath(), getOutputName(f, outputDir)));
+			}
+		}
+	}
+
+	private static File resolve(File base, String path) {
+		File f = new File(path);
+		return f.isAbsolute() || base == null ? f : new File(base, path);
+	}
+
+	// input file name with extension replaced by .prspdict
+	private static String getOutputName(File input, File outputDir) {
+		String name = input.getName();
+		int idx = name.lastIndexOf('.');
+		if (idx > 0) {
+			name = name.substring(0, idx);
+		}
+		File dir = outputDir != null ? outputDir : input.getParentFile();
+		return new File(dir, name + Converter.EXT_PRSPDICT).getPath();
+	}
+}
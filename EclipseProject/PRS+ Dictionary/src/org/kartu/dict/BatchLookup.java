@@ -0,0 +1,175 @@
+package org.kartu.dict;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks up many words at once, e.g. checking coverage of a corpus. Queries are sorted, so that neighbouring
+ * queries share prefixes, and radix is walked once: each query continues from the deepest node on the path
+ * of the previous one that is still within their common prefix, instead of descending from the root.
+ *
+ * Results are reported in sorted order of queries.
+ *
+ * @author kartu
+ */
+public class BatchLookup {
+	private final PrspdictReader reader;
+
+	/**
+	 * Receives results as they are found
+	 */
+	public interface ResultHandler {
+		/**
+		 * @param article offset of the article (see {@link PrspdictReader#find(String)}), -1 if there is no such word
+		 */
+		void result(String query, int article) throws IOException;
+	}
+
+	/**
+	 * Numbers of a single batch
+	 */
+	public static class Stats {
+		private long nQueries;
+		private long nHits;
+		// nodes read, nodes reused from the previous query
+		private long nNodes;
+		private long nSharedNodes;
+		private long nanos;
+
+		public long getQueryCount() {
+			return nQueries;
+		}
+
+		public long getHitCount() {
+			return nHits;
+		}
+
+		public double getHitRate() {
+			return nQueries == 0 ? 0 : (double) nHits / nQueries;
+		}
+
+		public long getNodeCount() {
+			return nNodes;
+		}
+
+		/**
+		 * @return number of nodes that queries didn't have to descend to, since the previous query already had
+		 */
+		public long getSharedNodeCount() {
+			return nSharedNodes;
+		}
+
+		public long getMillis() {
+			return nanos / 1000000;
+		}
+
+		public long getQueriesPerSecond() {
+			return nanos == 0 ? 0 : nQueries * 1000000000L / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d queries, hit rate %.2f%%, %d queries/sec, %d nodes read, %d shared with the previous query",
+					nQueries, getHitRate() * 100, getQueriesPerSecond(), nNodes, nSharedNodes);
+		}
+	}
+
+	public BatchLookup(PrspdictReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Looks up all queries, list is sorted in place
+	 */
+	public Stats lookup(List<String> queries, ResultHandler handler) throws IOException {
+		Stats stats = new Stats();
+		long start = System.nanoTime();
+		Collections.sort(queries);
+		// path of the previous query: node at each depth and number of chars matched when it was reached
+		int[] nodes = new int[64];
+		int[] matched = new int[64];
+		int depth = 0;
+		nodes[0] = reader.getRadixOffset();
+		String previous = "";
+		for (String query : queries) {
+			int common = getCommonPrefixLength(previous, query);
+			while (matched[depth] > common) {
+				depth--;
+			}
+			stats.nSharedNodes += depth;
+			boolean found = true;
+			while (matched[depth] < query.length()) {
+				long child = reader.findChild(nodes[depth], query, matched[depth]);
+				if (child < 0) {
+					found = false;
+					break;
+				}
+				if (depth + 1 == nodes.length) {
+					nodes = grow(nodes);
+					matched = grow(matched);
+				}
+				nodes[depth + 1] = (int) (child >>> 32);
+				matched[depth + 1] = matched[depth] + (int) child;
+				depth++;
+				stats.nNodes++;
+			}
+			int article = found ? reader.getArticleOffset(nodes[depth]) : 0;
+			stats.nQueries++;
+			if (article != 0) {
+				stats.nHits++;
+				handler.result(query, article);
+			} else {
+				handler.result(query, -1);
+			}
+			previous = query;
+		}
+		stats.nanos = System.nanoTime() - start;
+		return stats;
+	}
+
+	/**
+	 * Looks up queries read from in (one per line, empty lines are skipped), writes "query TAB article offset" lines
+	 * (-1 if there is no such word) to out
+	 */
+	public Stats lookup(Reader in, final Writer out) throws IOException {
+		List<String> queries = new ArrayList<String>();
+		BufferedReader lines = new BufferedReader(in);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			if (line.length() > 0) {
+				queries.add(line);
+			}
+		}
+		Stats stats = lookup(queries, new ResultHandler() {
+			@Override
+			public void result(String query, int article) throws IOException {
+				out.write(query);
+				out.write('\t');
+				out.write(Integer.toString(article));
+				out.write('\n');
+			}
+		});
+		out.flush();
+		return stats;
+	}
+
+	private static int getCommonPrefixLength(String s1, String s2) {
+		int n = Math.min(s1.length(), s2.length());
+		int i = 0;
+		while (i < n && s1.charAt(i) == s2.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int[] grow(int[] a) {
+		int[] result = new int[a.length * 2];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+	}
+}
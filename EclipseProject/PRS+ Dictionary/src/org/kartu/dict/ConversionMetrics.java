@@ -0,0 +1,233 @@
+package org.kartu.dict;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per phase numbers of a single conversion: wall and CPU time, peak heap and phase specific counters
+ * (articles, bytes, time spent in steps of interleaved work), written out as JSON.
+ *
+ * CPU time and heap are process wide, when several dictionaries are converted at the same time
+ * (see {@link #setShared(boolean)}) they would include the work of the others, they are written as null then.
+ *
+ * @author kartu
+ */
+public class ConversionMetrics {
+	private static final String ARTICLES = "articles";
+
+	private final Map<String, Object> properties = new LinkedHashMap<String, Object>();
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private final long start = System.nanoTime();
+	private long end;
+	private boolean shared = false;
+
+	/**
+	 * Single phase of the conversion, counters are kept in the order they were first added.
+	 */
+	public static class Phase {
+		private final String name;
+		// process is shared with other conversions, process wide numbers are not recorded
+		private final boolean shared;
+		private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+		private final long start = System.nanoTime();
+		private final long startCpu;
+		private long wallNanos;
+		private long cpuNanos;
+		private long peakHeap;
+
+		private Phase(String name, boolean shared) {
+			this.name = name;
+			this.shared = shared;
+			// peaks of the other conversions would be reset too
+			startCpu = shared ? -1 : getProcessCpuTime();
+			if (!shared) {
+				resetPeakHeap();
+			}
+		}
+
+		public void add(String counter, long n) {
+			Long value = counters.get(counter);
+			counters.put(counter, value == null ? n : value + n);
+		}
+
+		/**
+		 * Adds time elapsed since startNanos (System.nanoTime()) to the step of the phase
+		 *
+		 * @return current System.nanoTime(), to be used as the start of the next step
+		 */
+		public long addTime(String step, long startNanos) {
+			long now = System.nanoTime();
+			add(step + "Nanos", now - startNanos);
+			return now;
+		}
+
+		public long get(String counter) {
+			Long value = counters.get(counter);
+			return value == null ? 0 : value;
+		}
+
+		public void end() {
+			wallNanos = System.nanoTime() - start;
+			if (!shared) {
+				long endCpu = getProcessCpuTime();
+				cpuNanos = startCpu < 0 || endCpu < 0 ? -1 : endCpu - startCpu;
+				peakHeap = getPeakHeap();
+			}
+		}
+
+		private void toJson(StringBuilder sb, String indent) {
+			sb.append(indent).append("{");
+			appendField(sb, "name", name, false);
+			appendField(sb, "wallMillis", wallNanos / 1000000, true);
+			appendField(sb, "cpuMillis", shared ? null : cpuNanos < 0 ? -1 : cpuNanos / 1000000, true);
+			appendField(sb, "peakHeapBytes", shared ? null : peakHeap, true);
+			for (Map.Entry<String, Long> counter : counters.entrySet()) {
+				String key = counter.getKey();
+				if (key.endsWith("Nanos")) {
+					appendField(sb, key.substring(0, key.length() - 5) + "Millis", counter.getValue() / 1000000, true);
+				} else {
+					appendField(sb, key, counter.getValue(), true);
+				}
+			}
+			long nArticles = get(ARTICLES);
+			if (nArticles > 0 && wallNanos > 0) {
+				appendField(sb, "articlesPerSec", nArticles * 1000000000L / wallNanos, true);
+			}
+			sb.append("}");
+		}
+	}
+
+	/**
+	 * Starts new phase, must be ended by {@link Phase#end()}
+	 */
+	public Phase start(String name) {
+		Phase phase = new Phase(name, shared);
+		phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * @param shared other conversions run in the same process at the same time, CPU time and peak heap
+	 * 		of phases started afterwards are not recorded
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Sets top level value, e.g. input file name or total number of articles
+	 */
+	public void set(String name, Object value) {
+		properties.put(name, value);
+	}
+
+	/**
+	 * Marks end of the conversion
+	 */
+	public void end() {
+		end = System.nanoTime();
+	}
+
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		toJson(sb, "");
+		return sb.toString();
+	}
+
+	/**
+	 * Writes JSON array of the given metrics
+	 */
+	public static void toJson(List<ConversionMetrics> metrics, Appendable out) throws IOException {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0, n = metrics.size(); i < n; i++) {
+			sb.append(i > 0 ? ",\n" : "\n");
+			metrics.get(i).toJson(sb, "\t");
+		}
+		sb.append("\n]\n");
+		out.append(sb);
+	}
+
+	private void toJson(StringBuilder sb, String indent) {
+		sb.append(indent).append("{");
+		boolean first = true;
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			appendField(sb, property.getKey(), property.getValue(), !first);
+			first = false;
+		}
+		appendField(sb, "totalMillis", ((end > 0 ? end : System.nanoTime()) - start) / 1000000, !first);
+		sb.append(",\n").append(indent).append("\t\"phases\": [");
+		for (int i = 0, n = phases.size(); i < n; i++) {
+			sb.append(i > 0 ? ",\n" : "\n");
+			phases.get(i).toJson(sb, indent + "\t\t");
+		}
+		sb.append("\n").append(indent).append("\t]\n").append(indent).append("}");
+	}
+
+	private static void appendField(StringBuilder sb, String name, Object value, boolean comma) {
+		if (comma) {
+			sb.append(", ");
+		}
+		appendValue(sb, name);
+		sb.append(": ");
+		if (value == null || value instanceof Number || value instanceof Boolean) {
+			sb.append(value);
+		} else {
+			appendValue(sb, String.valueOf(value));
+		}
+	}
+
+	// JSON string literal
+	private static void appendValue(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	// CPU time of the whole process, -1 if VM doesn't provide it
+	private static long getProcessCpuTime() {
+		try {
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+			}
+		} catch (LinkageError ignore) {
+			// not a Sun VM
+		}
+		return -1;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	// Sum of heap pools' peaks since the last reset
+	private static long getPeakHeap() {
+		long result = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+}
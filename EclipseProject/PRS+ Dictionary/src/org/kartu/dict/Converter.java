@@ -0,0 +1,1069 @@
+package org.kartu.dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.log4j.Logger;
+import org.kartu.IOUtils;
+import org.kartu.OrderedPipeline;
+import org.kartu.dict.stardict.StardictParser;
+import org.kartu.dict.xdxf.visual.XDXFParser;
+
+import ds.tree.DuplicateKeyException;
+import ds.tree.RadixTreeImpl;
+import ds.tree.RadixTreeNode;
+
+/**
+ * Converts single dictionary into prspdict file, can be reused for any number of conversions,
+ * including concurrent ones.
+ *
+ * PRS+ dictionary file format is:
+ *
+ *  (all offsets are absolute, except for large file, whose index offsets are relative to index base)
+ *
+ *  [header]
+ *  [articles]
+ *  [word list]
+ *  [radix]
+ *  [folded index] - optional
+ *  [full text index] - optional
+ *
+ *  header :
+ *  	"PRSPDICT" (ascii)
+ *  	header size (uint16)
+ *  	version lo (uint8) - flags: 1 - articles are compressed, 2 - word list is front coded, 4 - large file
+ *  	version hi (uint8) - radix node format, see {@link RadixSerializer}
+ *  	word list offset (uint32)
+ *  	radix offset (uint32)
+ *  	block table offset (uint32) - compressed articles only
+ *  	number of blocks (uint32) - compressed articles only
+ *  	restart table offset (uint32) - front coded word list only
+ *  	number of restart points (uint32) - front coded word list only
+ *  	restart interval (uint32) - front coded word list only
+ *  	folded radix offset (uint32) - 0 if there is no folded index
+ *  	full text term table offset (uint32) - 0 if there is no full text index
+ *  	number of full text terms (uint32) - full text index only
+ *  	index base (uint64) - large file only
+ *  	article table offset (uint32) - large file only
+ *  	number of stored articles (uint32) - large file only
+ *  	... rest is padded with zeros up to 1024 bytes
+ *
+ *  articles : article*
+ *  	(compressed: zlib blocks of articles and block table, see {@link ArticleBlockWriter}, article offsets
+ *  	in the radix are (block, offset in block) pointers)
+ *
+ *  article:
+ *  	length (unit32)
+ *  	article (utf8 TEXT)
+ *
+ *  word list (in keyword collation order, the same as articles):
+ *   	name (UTF8)
+ *   	\0
+ *   	short translation (up to SHORT_TRANSLATION_LEN chars, UTF8)
+ *   	\0
+ *   	(front coded: keyword shares prefix with the previous one, restart table follows the records, see {@link FrontCoder})
+ *
+ *  radix: node*
+ *
+ *  node (version 1.0, version 2.0 nodes have sorted child table, see {@link RadixSerializer}):
+ *  	length - size of the structure in bytes (uint16)
+ *  	article offset - (uint32)
+ *  	word list offset - (uint32)
+ *  	number of child nodes - (uint8)
+ *  	offsets of child nodes (uint32 * number of child nodes)
+ *  	zero terminated UTF16 names of child nodes (length can be determined by total length of the node, in collation order)
+ *
+ *  folded index (case and accent insensitive lookup, keys folded by {@link KeyNormalizer}, ignored by PRS+ reader):
+ *  	folded entry*
+ *  	radix of folded keys, article offset of its nodes points to the folded entry,
+ *  	word list offset to the word list record of the first original keyword
+ *
+ *  folded entry:
+ *  	number of original keywords (uint16)
+ *  	article offset, word list offset of each original keyword (uint32 * 2 * number of original keywords)
+ *
+ *  full text index (folded terms of article bodies, ignored by PRS+ reader):
+ *  	posting lists of article offsets, terms and term table, see {@link FullTextIndexWriter}
+ *
+ *  large file (articles section beyond 2GB, not supported by PRS+ reader):
+ *  	everything from the word list on is the index, its offsets are relative to index base, which is chosen so that
+ *  	word list starts at the same offset as usual (right after the header), sections must end within 2GB of index base.
+ *  	Article offsets of the nodes, folded entries and posting lists are 1 based article numbers, article table
+ *  	(after the last index) has absolute offset of each stored article (uint64 * number of stored articles)
+ *
+ * @author kartu
+ */
+public class Converter {
+	public static final String EXT_PRSPDICT = ".prspdict";
+	private static final Logger log = Logger.getLogger(Converter.class);
+	// Encoded articles in flight per worker thread
+	private static final int ARTICLES_PER_THREAD = 256;
+
+	static final int HEADER_SIZE = 1024;
+	static final Charset KEY_CHARSET = Charset.forName("UTF-16LE");
+	static final Charset ARTICLE_CHARSET = Charset.forName("UTF-8");
+	static final int SHORT_TRANSLATION_LEN = 80;
+	// Block size blocks per lookup are reported for, unless radix is clustered for another one
+	static final int DEFAULT_BLOCK_SIZE = 4096;
+	// Minor version is a set of flags
+	static final int VERSION_LO_OFFSET = 8 + 2;
+	static final int VERSION_LO_COMPRESSED = 1;
+	static final int VERSION_LO_FRONT_CODED = 2;
+	static final int VERSION_LO_LARGE_FILE = 4;
+	// absolute article offset
+	static final int ARTICLE_TABLE_ENTRY_SIZE = 8;
+	// Keywords sharing folded key
+	static final int MAX_FOLDED_ORIGINALS = 0xffff;
+	// Postings kept in memory by full text index, unless external memory budget is set
+	static final long FULL_TEXT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private long externalMemoryBudget = 0;
+	private File tempDir = null;
+	private boolean incremental = false;
+	private Locale locale = Locale.ROOT;
+	private int formatVersion = RadixSerializer.NODE_FORMAT_1;
+	private int radixClusterSize = RadixSerializer.NO_CLUSTERS;
+	private int articleBlockSize = 0;
+	private boolean deduplicate = true;
+	private int wordListRestartInterval = 0;
+	private boolean foldedIndex = false;
+	private boolean fullTextIndex = false;
+	private boolean largeFile = false;
+
+	/**
+	 * @param nThreads number of threads rendering and encoding articles, 1 means everything is done on the calling thread
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * @param externalMemoryBudget if positive, articles are sorted on disk, keeping roughly given number of bytes in memory
+	 */
+	public void setExternalMemoryBudget(long externalMemoryBudget) {
+		this.externalMemoryBudget = externalMemoryBudget;
+	}
+
+	/**
+	 * @param tempDir directory for temporary files, null means system default
+	 */
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * @param incremental if set, articles that haven't changed since the previous conversion into the same output file
+	 * 		are copied from it instead of being rendered anew, see {@link IncrementalBuild}
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @param locale locale whose collation defines order of articles, word list and radix children
+	 */
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+	}
+
+	/**
+	 * @param formatVersion major version of the file, defines radix node format (see {@link RadixSerializer}),
+	 * 		PRS+ reader supports only version 1
+	 */
+	public void setFormatVersion(int formatVersion) {
+		if (formatVersion != RadixSerializer.NODE_FORMAT_1 && formatVersion != RadixSerializer.NODE_FORMAT_2) {
+			throw new IllegalArgumentException("Unsupported format version: " + formatVersion);
+		}
+		this.formatVersion = formatVersion;
+	}
+
+	/**
+	 * @param radixClusterSize if positive, radix nodes are clustered into blocks of the given size (see {@link RadixSerializer}),
+	 * 		otherwise written in pre-order
+	 */
+	public void setRadixClusterSize(int radixClusterSize) {
+		this.radixClusterSize = radixClusterSize;
+	}
+
+	/**
+	 * @param articleBlockSize if positive, articles are compressed in blocks of up to the given size (see {@link ArticleBlockWriter}),
+	 * 		PRS+ reader doesn't support compressed files
+	 */
+	public void setArticleBlockSize(int articleBlockSize) {
+		if (articleBlockSize > ArticleBlockWriter.MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size cannot exceed " + ArticleBlockWriter.MAX_BLOCK_SIZE + ": " + articleBlockSize);
+		}
+		this.articleBlockSize = articleBlockSize;
+	}
+
+	/**
+	 * @param deduplicate if set, identical articles are stored once, see {@link ArticleDeduplicator}
+	 * 		(not done by incremental conversion)
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * @param wordListRestartInterval if positive, word list keywords are front coded, keeping whole keyword
+	 * 		every wordListRestartInterval records, see {@link FrontCoder}. PRS+ reader doesn't support front coded word list
+	 */
+	public void setWordListRestartInterval(int wordListRestartInterval) {
+		this.wordListRestartInterval = wordListRestartInterval;
+	}
+
+	/**
+	 * @param foldedIndex if set, radix of case and accent folded keywords is written after the radix,
+	 * 		so that insensitive lookup is a single descent, see {@link KeyNormalizer}
+	 */
+	public void setFoldedIndex(boolean foldedIndex) {
+		this.foldedIndex = foldedIndex;
+	}
+
+	/**
+	 * @param fullTextIndex if set, index of the terms of article bodies is written after the indices,
+	 * 		its postings are spilled to temporary files beyond external memory budget, see {@link FullTextIndexWriter}
+	 */
+	public void setFullTextIndex(boolean fullTextIndex) {
+		this.fullTextIndex = fullTextIndex;
+	}
+
+	/**
+	 * @param largeFile if set, articles section can be bigger than 2GB, articles are located by article table
+	 * 		of 64 bit offsets (uncompressed articles only, not done by incremental conversion).
+	 * 		PRS+ reader doesn't support large files. Otherwise, conversion fails if sections end beyond 2GB
+	 */
+	public void setLargeFile(boolean largeFile) {
+		this.largeFile = largeFile;
+	}
+
+	/**
+	 * @return parser for the given input file, null if file type isn't supported
+	 */
+	public static IDictionaryParser createParser(String inputFileName) {
+		if (inputFileName.endsWith(XDXFParser.EXTENSION)) {
+			return new XDXFParser();
+		} else if (inputFileName.endsWith(StardictParser.EXTENSION)) {
+			return new StardictParser();
+		}
+		return null;
+	}
+
+	/**
+	 * @return converter version (see main.properties), "?.?" if unknown
+	 */
+	public static String getVersion() throws IOException {
+		Properties props = new Properties();
+		InputStream in = Converter.class.getResourceAsStream("/main.properties");
+		if (in != null) {
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return props.getProperty("version", "?.?");
+	}
+
+	/**
+	 * Converts dictionary.
+	 *
+	 * @return number of articles written
+	 * @throws DictionaryParserException if input file is not supported or cannot be parsed
+	 */
+	public long convert(String inputFileName, String outputFileName) throws IOException, DictionaryParserException {
+		return convert(inputFileName, outputFileName, new ConversionMetrics());
+	}
+
+	/**
+	 * Converts dictionary, collecting per phase metrics.
+	 *
+	 * @return number of articles written
+	 * @throws DictionaryParserException if input file is not supported or cannot be parsed
+	 */
+	public long convert(String inputFileName, String outputFileName, ConversionMetrics metrics) throws IOException, DictionaryParserException {
+		metrics.set("input", inputFileName);
+		metrics.set("output", outputFileName);
+		metrics.set("threads", nThreads);
+		metrics.set("externalMemoryBudget", externalMemoryBudget);
+		metrics.set("incremental", incremental);
+		metrics.set("locale", locale.toString());
+		metrics.set("formatVersion", formatVersion);
+		metrics.set("radixClusterSize", radixClusterSize);
+		metrics.set("articleBlockSize", articleBlockSize);
+		metrics.set("deduplicate", deduplicate);
+		metrics.set("wordListRestartInterval", wordListRestartInterval);
+		metrics.set("foldedIndex", foldedIndex);
+		metrics.set("fullTextIndex", fullTextIndex);
+		metrics.set("largeFile", largeFile);
+
+		// Open input dictionary file
+		IDictionaryParser parser = createParser(inputFileName);
+		if (parser == null) {
+			throw new DictionaryParserException(String.format("Unknown extension, please provide file with either %s (xdxf) or %s (stardict) extension", XDXFParser.EXTENSION, StardictParser.EXTENSION));
+		}
+		if (parser instanceof StardictParser) {
+			// dictzip chunks are inflated by the same number of threads
+			((StardictParser) parser).setThreads(nThreads);
+		}
+		boolean incremental = this.incremental;
+		if (incremental && externalMemoryBudget > 0) {
+			log.warn("Incremental conversion needs articles in memory, converting " + inputFileName + " from scratch");
+			incremental = false;
+		}
+		if (incremental && articleBlockSize > 0) {
+			log.warn("Incremental conversion cannot reuse compressed articles, converting " + inputFileName + " from scratch");
+			incremental = false;
+		}
+		if (incremental && largeFile) {
+			log.warn("Incremental conversion cannot write large file, converting " + inputFileName + " from scratch");
+			incremental = false;
+		}
+		boolean largeFile = this.largeFile;
+		if (largeFile && articleBlockSize > 0) {
+			// block pointers are 32 bit, but compressed articles are unlikely to get that far
+			log.warn("Compressed articles cannot be written as large file, converting " + inputFileName + " with 32 bit offsets");
+			largeFile = false;
+		}
+		if (nThreads > 1 && !incremental) {
+			// parser thread + rendering workers (incremental build renders only what has changed)
+			parser = new ParallelParser(parser, nThreads);
+		}
+
+		// Incremental build reads the previous version of the output file, new version goes to a temporary file
+		File output = new File(outputFileName);
+		File target = incremental ? new File(outputFileName + ".tmp") : output;
+		IncrementalBuild build = null;
+		boolean done = false;
+
+		// Write header (zeros)
+		RandomAccessFile outputFile = new RandomAccessFile(target, "rw");
+		ExternalArticleSorter sorter = null;
+		try {
+			outputFile.setLength(HEADER_SIZE);
+
+			try {
+				parser.open(inputFileName);
+
+				log.info("Reading articles (might take a while)...");
+
+				// To solve the problem with duplicate articles, need to read everything first
+				// Articles are written in keyword order, so that neighbouring words are next to each other in the file
+				KeywordOrder order = new KeywordOrder(locale);
+				Iterable<IDictionaryArticle> articles;
+				ConversionMetrics.Phase phase = metrics.start("read");
+				if (externalMemoryBudget > 0) {
+					sorter = readArticlesExternal(parser, externalMemoryBudget, tempDir, order, phase);
+					articles = sorter;
+					phase.end();
+				} else {
+					Collection<IDictionaryArticle> parsed = readArticles(parser, phase).values();
+					phase.end();
+					phase = metrics.start("sort");
+					List<IDictionaryArticle> sorted = order.sort(parsed);
+					phase.add("articles", sorted.size());
+					phase.end();
+					if (incremental) {
+						phase = metrics.start("prepare");
+						build = IncrementalBuild.open(output);
+						articles = build.prepare(sorted, nThreads);
+						phase.add("articles", sorted.size());
+						phase.add("reused", build.getReusedCount());
+						phase.end();
+					} else {
+						articles = sorted;
+					}
+				}
+
+				long nArticles = write(articles, outputFile.getChannel(), build, largeFile, order, metrics);
+				if (build != null) {
+					build.close();
+					outputFile.close();
+					File sums = IncrementalBuild.getSumsFile(output);
+					File sumsTarget = new File(sums.getPath() + ".tmp");
+					build.save(target, sumsTarget);
+					// stale sums go first, so that they can't end up next to the new file
+					if (sums.exists() && !sums.delete()) {
+						throw new IOException("Cannot delete " + sums);
+					}
+					replace(target, output);
+					replace(sumsTarget, sums);
+				}
+				done = true;
+				metrics.set("articles", nArticles);
+				metrics.set("fileBytes", output.length());
+				metrics.end();
+				return nArticles;
+			} finally {
+				parser.close();
+			}
+		} catch (ExecutionException e) {
+			throw new DictionaryParserException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Conversion of " + inputFileName + " was interrupted");
+		} finally {
+			if (sorter != null) {
+				sorter.close();
+			}
+			if (build != null) {
+				build.close();
+			}
+			outputFile.close();
+			if (incremental && !done && !target.delete()) {
+				target.deleteOnExit();
+			}
+		}
+	}
+
+	// Renames file, replacing existing one
+	private static void replace(File from, File to) throws IOException {
+		if (to.exists() && !to.delete() || !from.renameTo(to)) {
+			throw new IOException("Cannot rename " + from + " to " + to);
+		}
+	}
+
+	/**
+	 * Offsets and sizes of the sections
+	 */
+	private static class Sections {
+		// added to article offsets kept in the tree
+		int articleOffset;
+		// added to file positions of the index sections (large file only)
+		long indexBase;
+		int wordListOffset;
+		long wordListLen;
+		long nArticles;
+		// compressed articles only
+		int blockTableOffset;
+		int nBlocks;
+		// front coded word list only
+		int restartTableOffset;
+		int nRestarts;
+		// optional indices, 0 if not written
+		int foldedRadixOffset;
+		int fullTextOffset;
+		int nFullTextTerms;
+		// absolute offsets of stored articles, large file only
+		long[] articleTable;
+		int nStoredArticles;
+	}
+
+	/**
+	 * Writes all sections of the prspdict file
+	 *
+	 * @return number of articles written
+	 */
+	private long write(Iterable<IDictionaryArticle> articles, FileChannel outputChannel, IncrementalBuild build,
+			boolean largeFile, KeywordOrder order, ConversionMetrics metrics) throws IOException, ExecutionException, InterruptedException {
+		RadixTreeImpl<int[]> tree = new RadixTreeImpl<int[]>();
+		FullTextIndexWriter fullText = fullTextIndex
+				? new FullTextIndexWriter(externalMemoryBudget > 0 ? externalMemoryBudget : FULL_TEXT_MEMORY_BUDGET, tempDir)
+				: null;
+		try {
+			Sections sections = articleBlockSize > 0
+					? writeCompressedArticles(articles, outputChannel, tree, fullText, metrics)
+					: writeArticles(articles, outputChannel, build, largeFile, tree, fullText, metrics);
+			log.info("Finished reading articles (" + sections.nArticles + ")");
+			writeIndices(outputChannel, tree, fullText, order, sections, metrics);
+			return sections.nArticles;
+		} finally {
+			if (fullText != null) {
+				fullText.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes radix, optional indices and header
+	 */
+	private void writeIndices(FileChannel outputChannel, RadixTreeImpl<int[]> tree, FullTextIndexWriter fullText,
+			KeywordOrder order, Sections sections, ConversionMetrics metrics) throws IOException {
+
+		int radixOffset = checkOffset(sections.wordListOffset + sections.wordListLen, "Word list");
+		long base = sections.indexBase;
+
+		// Write index
+		log.info("Writing indices (should take even longer than reading articles)");
+		ConversionMetrics.Phase phase = metrics.start("radix");
+		// tree keeps children in insertion order
+		order.sortChildren(tree.root);
+		PrspdictWriter radixWriter = new PrspdictWriter(outputChannel, base + radixOffset);
+		RadixSerializer.BlockStats blockStats = new RadixSerializer.BlockStats(radixClusterSize > 0 ? radixClusterSize : DEFAULT_BLOCK_SIZE);
+		int radixEnd = RadixSerializer.getInstance().persistRadix(formatVersion, radixClusterSize, KEY_CHARSET, radixOffset,
+				sections.articleOffset, sections.wordListOffset, tree.root, radixWriter, blockStats);
+		radixWriter.flush();
+		phase.add("nodes", tree.getNodeCount());
+		phase.add("radixBytes", radixEnd - radixOffset);
+		phase.end();
+		metrics.set("lookupBlockSize", blockStats.getBlockSize());
+		metrics.set("blocksPerLookup", blockStats.getAverageBlocks());
+		metrics.set("maxBlocksPerLookup", blockStats.getMaxBlocks());
+		log.info(String.format("Radix lookup reads %.2f blocks of %d bytes on average, %d at most",
+				blockStats.getAverageBlocks(), blockStats.getBlockSize(), blockStats.getMaxBlocks()));
+
+		int end = radixEnd;
+		if (foldedIndex) {
+			log.info("Writing folded index");
+			end = writeFoldedIndex(tree, order, outputChannel, end, sections, metrics);
+		}
+		if (fullText != null) {
+			log.info("Writing full text index");
+			phase = metrics.start("fullTextIndex");
+			sections.fullTextOffset = fullText.write(outputChannel, base, end);
+			sections.nFullTextTerms = fullText.getTermCount();
+			int fullTextEnd = sections.fullTextOffset + sections.nFullTextTerms * FullTextIndexWriter.TERM_TABLE_ENTRY_SIZE;
+			phase.add("terms", fullText.getTermCount());
+			phase.add("postings", fullText.getPostingCount());
+			phase.add("runs", fullText.getRunCount());
+			phase.add("fullTextBytes", fullTextEnd - end);
+			phase.end();
+			end = fullTextEnd;
+		}
+		int articleTableOffset = 0;
+		if (sections.articleTable != null) {
+			articleTableOffset = end;
+			checkOffset(end + (long) sections.nStoredArticles * ARTICLE_TABLE_ENTRY_SIZE, "Article table");
+			PrspdictWriter tableWriter = new PrspdictWriter(outputChannel, base + end);
+			for (int i = 0; i < sections.nStoredArticles; i++) {
+				tableWriter.writeLong(sections.articleTable[i]);
+			}
+			tableWriter.flush();
+		}
+
+		//------------------------------- Write header --------------------------------------
+		log.info("Writing header");
+		PrspdictWriter headerWriter = new PrspdictWriter(outputChannel, 0, HEADER_SIZE);
+		// magic
+		headerWriter.write("PRSPDICT".getBytes("ASCII"));
+		// header size
+		headerWriter.writeShort(HEADER_SIZE - 8 /* magic */);
+
+		// version
+		headerWriter.writeByte((articleBlockSize > 0 ? VERSION_LO_COMPRESSED : 0)
+				| (wordListRestartInterval > 0 ? VERSION_LO_FRONT_CODED : 0)
+				| (sections.articleTable != null ? VERSION_LO_LARGE_FILE : 0)); // lo
+		headerWriter.writeByte(formatVersion); // hi
+
+		// index offset
+		headerWriter.writeInt(sections.wordListOffset);
+		headerWriter.writeInt(radixOffset);
+		// zeros unless used, output file might have been there before
+		headerWriter.writeInt(sections.blockTableOffset);
+		headerWriter.writeInt(sections.nBlocks);
+		headerWriter.writeInt(sections.restartTableOffset);
+		headerWriter.writeInt(sections.nRestarts);
+		headerWriter.writeInt(wordListRestartInterval);
+		headerWriter.writeInt(sections.foldedRadixOffset);
+		headerWriter.writeInt(sections.fullTextOffset);
+		headerWriter.writeInt(sections.nFullTextTerms);
+		headerWriter.writeLong(base);
+		headerWriter.writeInt(articleTableOffset);
+		headerWriter.writeInt(sections.nStoredArticles);
+		headerWriter.flush();
+
+		log.info("OK");
+	}
+
+	/**
+	 * Writes articles and word list, adds keywords to the tree
+	 */
+	private Sections writeArticles(Iterable<IDictionaryArticle> articles, FileChannel outputChannel, IncrementalBuild build,
+			boolean largeFile, RadixTreeImpl<int[]> tree, FullTextIndexWriter fullText, ConversionMetrics metrics) throws IOException, ExecutionException, InterruptedException {
+		// Space for the articles section is reserved up front, so that word list (used for quick lookup
+		// of words with closest match) can be written while articles are, word list is moved back
+		// if articles turn out to be shorter (duplicates stored once, articles merged by external sort)
+		// Incremental build measures articles while preparing them, without deduplication
+		ArticleDeduplicator deduplicator = deduplicate && build == null ? new ArticleDeduplicator() : null;
+		ConversionMetrics.Phase phase = metrics.start("measure");
+		boolean exact = !(articles instanceof ExternalArticleSorter);
+		long articlesSectionBound;
+		if (build != null) {
+			articlesSectionBound = build.getArticlesSectionLength();
+		} else if (exact) {
+			articlesSectionBound = computeArticlesSectionLength(articles);
+		} else {
+			articlesSectionBound = ((ExternalArticleSorter) articles).getArticlesSectionBound();
+		}
+		if (!largeFile && exact && deduplicator == null) {
+			checkArticlesSectionLength(articlesSectionBound);
+		}
+		phase.add("articlesSectionBytes", articlesSectionBound);
+		phase.end();
+		long wordListPosition = HEADER_SIZE + articlesSectionBound;
+		PrspdictWriter articlesWriter = new PrspdictWriter(outputChannel, HEADER_SIZE);
+		PrspdictWriter wordListWriter = new PrspdictWriter(outputChannel, wordListPosition);
+
+		long articlesLen = 0;
+		long wordListLen = 0;
+		long nArticles = 0;
+		// large file: articles are referred to by number
+		long[] articleTable = largeFile ? new long[1024] : null;
+		int nStored = 0;
+		FrontCoder frontCoder = wordListRestartInterval > 0 ? new FrontCoder(wordListRestartInterval) : null;
+		List<Integer> restarts = new ArrayList<Integer>();
+
+		// Articles are encoded by workers, offsets are assigned here, in the iteration order
+		phase = metrics.start("write");
+		OrderedPipeline<IDictionaryArticle, EncodedArticle> encoder = new OrderedPipeline<IDictionaryArticle, EncodedArticle>(
+				"encoder", articles.iterator(), getEncodeStage(build != null ? build.encode : getEncodeStage(deduplicator), fullText),
+				nThreads, nThreads * ARTICLES_PER_THREAD);
+		try {
+			EncodedArticle article;
+			long time = System.nanoTime();
+			while ((article = encoder.take()) != null) {
+				// time spent waiting for the workers
+				time = phase.addTime("encode", time);
+				String keyword = article.keyword;
+				if (keyword == null) {
+					// ignore articles without keyword
+					continue;
+				}
+				byte[] content = article.content;
+				try {
+					// word list end is checked once it's written, offsets before it can't overflow
+					int[] value = new int[] {articleTable != null ? nStored : (int) articlesLen, (int) wordListLen};
+					tree.insert(keyword, value);
+					byte[] shortContent = article.wordListRecord;
+					if (frontCoder != null) {
+						shortContent = frontCoder.encode(shortContent);
+						if (frontCoder.isRestart()) {
+							// relative to the word list until its final position is known
+							restarts.add((int) wordListLen);
+						}
+					}
+					if (build != null) {
+						// no duplicates, measured size is exact
+						build.add(article, HEADER_SIZE + articlesLen, wordListPosition + wordListLen, shortContent.length);
+					}
+					time = phase.addTime("treeInsert", time);
+					int stored = deduplicator != null ? deduplicator.get(article.digest) : ArticleDeduplicator.NONE;
+					if (stored != ArticleDeduplicator.NONE) {
+						value[0] = stored;
+						phase.add("duplicateArticles", 1);
+						phase.add("duplicateBytes", content.length + 4);
+					} else {
+						if (deduplicator != null) {
+							deduplicator.put(article.digest, value[0]);
+						}
+						if (articleTable != null) {
+							if (nStored == articleTable.length) {
+								articleTable = Arrays.copyOf(articleTable, nStored * 2);
+							}
+							articleTable[nStored++] = HEADER_SIZE + articlesLen;
+						}
+						if (fullText != null) {
+							fullText.add(articleTable != null ? nStored : (int) (HEADER_SIZE + articlesLen), article.terms);
+						}
+						articlesWriter.writeInt(content.length);
+						articlesWriter.write(content);
+						// 4 bytes is length of the article
+						articlesLen += content.length + 4;
+					}
+					time = phase.addTime("articleWrite", time);
+					wordListWriter.write(shortContent);
+					time = phase.addTime("wordListWrite", time);
+					wordListLen += shortContent.length;
+					nArticles++;
+				} catch (DuplicateKeyException e) {
+					log.warn("Duplicate article: " + keyword + " this should never happen, converter is bugged!");
+				}
+			}
+		} finally {
+			encoder.close();
+		}
+		articlesWriter.flush();
+		wordListWriter.flush();
+		// only articles stored once and merged articles can make the section shorter than measured
+		long measuredLen = articlesLen + phase.get("duplicateBytes");
+		if (exact ? measuredLen != articlesSectionBound : measuredLen > articlesSectionBound) {
+			throw new IllegalStateException("Articles section doesn't match its measured size: " + measuredLen + " != " + articlesSectionBound);
+		}
+		if (!largeFile) {
+			checkArticlesSectionLength(articlesLen);
+		}
+		if (articlesLen < articlesSectionBound) {
+			// word list has to follow articles right away
+			moveBack(outputChannel, wordListPosition, HEADER_SIZE + articlesLen, wordListLen);
+			wordListPosition = HEADER_SIZE + articlesLen;
+			outputChannel.truncate(wordListPosition + wordListLen);
+		}
+		// large file: index offsets are relative to the end of the articles, less the header
+		long indexBase = largeFile ? articlesLen : 0;
+		int wordListOffset = (int) (wordListPosition - indexBase);
+		Sections result = new Sections();
+		if (frontCoder != null) {
+			PrspdictWriter restartsWriter = new PrspdictWriter(outputChannel, wordListPosition + wordListLen);
+			wordListLen += writeRestarts(restarts, wordListOffset, restartsWriter, indexBase, result);
+			restartsWriter.flush();
+		}
+		phase.add("articles", nArticles);
+		phase.add("articlesBytes", articlesLen);
+		phase.add("wordListBytes", wordListLen);
+		phase.end();
+		logDuplicates(phase);
+
+		// article numbers are 1 based, 0 means no article
+		result.articleOffset = articleTable != null ? 1 : HEADER_SIZE;
+		result.indexBase = indexBase;
+		result.wordListOffset = wordListOffset;
+		result.wordListLen = wordListLen;
+		result.nArticles = nArticles;
+		result.articleTable = articleTable;
+		result.nStoredArticles = nStored;
+		return result;
+	}
+
+	/**
+	 * Writes compressed articles (see {@link ArticleBlockWriter}) followed by word list, adds keywords to the tree.
+	 * Size of the compressed section isn't known up front, word list is written by the second pass over the articles.
+	 */
+	private Sections writeCompressedArticles(Iterable<IDictionaryArticle> articles, FileChannel outputChannel,
+			RadixTreeImpl<int[]> tree, FullTextIndexWriter fullText, ConversionMetrics metrics) throws IOException, ExecutionException, InterruptedException {
+		long wordListLen = 0;
+		long nArticles = 0;
+		ArticleDeduplicator deduplicator = deduplicate ? new ArticleDeduplicator() : null;
+		FrontCoder frontCoder = wordListRestartInterval > 0 ? new FrontCoder(wordListRestartInterval) : null;
+		ArticleBlockWriter blocks = new ArticleBlockWriter(outputChannel, HEADER_SIZE, articleBlockSize, nThreads);
+		long blocksEnd;
+
+		ConversionMetrics.Phase phase = metrics.start("write");
+		OrderedPipeline<IDictionaryArticle, EncodedArticle> encoder = new OrderedPipeline<IDictionaryArticle, EncodedArticle>(
+				"encoder", articles.iterator(), getEncodeStage(getEncodeStage(deduplicator), fullText), nThreads, nThreads * ARTICLES_PER_THREAD);
+		try {
+			EncodedArticle article;
+			long time = System.nanoTime();
+			while ((article = encoder.take()) != null) {
+				// time spent waiting for the workers
+				time = phase.addTime("encode", time);
+				String keyword = article.keyword;
+				if (keyword == null) {
+					// ignore articles without keyword
+					continue;
+				}
+				try {
+					int[] value = new int[] {0, (int) wordListLen};
+					tree.insert(keyword, value);
+					time = phase.addTime("treeInsert", time);
+					int stored = deduplicator != null ? deduplicator.get(article.digest) : ArticleDeduplicator.NONE;
+					if (stored != ArticleDeduplicator.NONE) {
+						value[0] = stored;
+						phase.add("duplicateArticles", 1);
+						phase.add("duplicateBytes", article.content.length + 4);
+					} else {
+						value[0] = blocks.add(article.content);
+						if (deduplicator != null) {
+							deduplicator.put(article.digest, value[0]);
+						}
+						if (fullText != null) {
+							fullText.add(value[0], article.terms);
+						}
+					}
+					time = phase.addTime("articleWrite", time);
+					wordListLen += (frontCoder != null ? frontCoder.encode(article.wordListRecord) : article.wordListRecord).length;
+					nArticles++;
+				} catch (DuplicateKeyException e) {
+					log.warn("Duplicate article: " + keyword + " this should never happen, converter is bugged!");
+				}
+			}
+			blocksEnd = blocks.finish();
+		} finally {
+			encoder.close();
+			blocks.close();
+		}
+		phase.add("articles", nArticles);
+		phase.add("articlesBytes", blocks.getUncompressedBytes());
+		phase.add("compressedBytes", blocks.getCompressedBytes());
+		phase.add("blocks", blocks.getBlockCount());
+		phase.end();
+		logDuplicates(phase);
+		log.info(String.format("Compressed %d bytes of articles into %d blocks, %d bytes", blocks.getUncompressedBytes(),
+				blocks.getBlockCount(), blocks.getCompressedBytes()));
+
+		// word list has to end where radix starts
+		phase = metrics.start("wordList");
+		int wordListOffset = checkOffset(blocksEnd, "Articles section");
+		PrspdictWriter wordListWriter = new PrspdictWriter(outputChannel, wordListOffset);
+		// the same records as the first pass
+		frontCoder = wordListRestartInterval > 0 ? new FrontCoder(wordListRestartInterval) : null;
+		List<Integer> restarts = new ArrayList<Integer>();
+		long written = 0;
+		for (IDictionaryArticle article : articles) {
+			if (article.getKeyword() != null) {
+				byte[] record = EncodedArticle.encodeWordListRecord(article);
+				if (frontCoder != null) {
+					record = frontCoder.encode(record);
+					if (frontCoder.isRestart()) {
+						checkOffset(wordListOffset + written, "Word list");
+						restarts.add((int) written);
+					}
+				}
+				written += wordListWriter.write(record);
+			}
+		}
+		if (written != wordListLen) {
+			throw new IllegalStateException("Word list doesn't match articles: " + written + " != " + wordListLen);
+		}
+		Sections result = new Sections();
+		if (frontCoder != null) {
+			wordListLen += writeRestarts(restarts, wordListOffset, wordListWriter, 0, result);
+		}
+		wordListWriter.flush();
+		phase.add("wordListBytes", wordListLen);
+		phase.end();
+
+		// pointers are kept as they are
+		result.articleOffset = 0;
+		result.wordListOffset = wordListOffset;
+		result.wordListLen = wordListLen;
+		result.nArticles = nArticles;
+		result.blockTableOffset = (int) blocks.getTableOffset();
+		result.nBlocks = blocks.getBlockCount();
+		return result;
+	}
+
+	/**
+	 * Writes folded index: entries listing original keywords of each folded key, followed by radix of folded keys
+	 *
+	 * @param tree radix of original keywords, children sorted
+	 * @return end of the folded radix, its offset is stored in the sections
+	 */
+	private int writeFoldedIndex(RadixTreeImpl<int[]> tree, KeywordOrder order, FileChannel outputChannel, int offset,
+			Sections sections, ConversionMetrics metrics) throws IOException {
+		ConversionMetrics.Phase phase = metrics.start("foldedIndex");
+		// absolute offsets of original keywords by folded key, in tree (pre-)order
+		LinkedHashMap<String, List<int[]>> originals = new LinkedHashMap<String, List<int[]>>();
+		ArrayList<RadixTreeNode<int[]>> stack = new ArrayList<RadixTreeNode<int[]>>();
+		ArrayList<String> prefixes = new ArrayList<String>();
+		stack.add(tree.root);
+		prefixes.add("");
+		while (!stack.isEmpty()) {
+			RadixTreeNode<int[]> node = stack.remove(stack.size() - 1);
+			String keyword = prefixes.remove(prefixes.size() - 1) + node.getKey();
+			if (node.isReal()) {
+				String folded = KeyNormalizer.normalize(keyword);
+				List<int[]> list = originals.get(folded);
+				if (list == null) {
+					list = new ArrayList<int[]>(1);
+					originals.put(folded, list);
+				}
+				list.add(new int[] {node.getValue()[0] + sections.articleOffset, node.getValue()[1] + sections.wordListOffset});
+			}
+			List<RadixTreeNode<int[]>> children = node.getChildern();
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.add(children.get(i));
+				prefixes.add(keyword);
+			}
+		}
+
+		RadixTreeImpl<int[]> foldedTree = new RadixTreeImpl<int[]>();
+		long base = sections.indexBase;
+		PrspdictWriter entriesWriter = new PrspdictWriter(outputChannel, base + offset);
+		long entriesLen = 0;
+		for (Map.Entry<String, List<int[]>> entry : originals.entrySet()) {
+			List<int[]> list = entry.getValue();
+			if (list.size() > MAX_FOLDED_ORIGINALS) {
+				throw new IllegalStateException("Too many keywords fold to " + entry.getKey() + ": " + list.size());
+			}
+			// keys of the map are unique
+			// entries end is checked once they are written, offsets before it can't overflow
+			foldedTree.insert(entry.getKey(), new int[] {(int) entriesLen, list.get(0)[1]});
+			entriesWriter.writeShort(list.size());
+			for (int[] original : list) {
+				entriesWriter.writeInt(original[0]);
+				entriesWriter.writeInt(original[1]);
+			}
+			entriesLen += 2 + list.size() * 4 * 2;
+		}
+		entriesWriter.flush();
+
+		order.sortChildren(foldedTree.root);
+		int radixOffset = checkOffset(offset + entriesLen, "Folded index");
+		PrspdictWriter radixWriter = new PrspdictWriter(outputChannel, base + radixOffset);
+		int radixEnd = RadixSerializer.getInstance().persistRadix(formatVersion, radixClusterSize, KEY_CHARSET, radixOffset,
+				offset, 0, foldedTree.root, radixWriter, null);
+		radixWriter.flush();
+		phase.add("foldedKeys", originals.size());
+		phase.add("nodes", foldedTree.getNodeCount());
+		phase.add("foldedEntriesBytes", entriesLen);
+		phase.add("radixBytes", radixEnd - radixOffset);
+		phase.end();
+		sections.foldedRadixOffset = radixOffset;
+		return radixEnd;
+	}
+
+	/**
+	 * Writes restart table of the front coded word list right after its records
+	 * 
+	 * @param restarts offsets of the restart records, relative to the word list
+	 * @param wordListOffset offset of the word list, added to the restarts
+	 * @param base index base, subtracted from file position of the table
+	 * @return size of the table
+	 */
+	private static int writeRestarts(List<Integer> restarts, int wordListOffset, PrspdictWriter wordListWriter, long base,
+			Sections sections) throws IOException {
+		sections.restartTableOffset = checkOffset(wordListWriter.getPosition() - base, "Word list");
+		sections.nRestarts = restarts.size();
+		for (int restart : restarts) {
+			wordListWriter.writeInt(wordListOffset + restart);
+		}
+		return restarts.size() * 4;
+	}
+
+	private static OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> getEncodeStage(ArticleDeduplicator deduplicator) {
+		return deduplicator != null ? EncodedArticle.ENCODE_WITH_DIGEST : EncodedArticle.ENCODE;
+	}
+
+	/**
+	 * @return stage that also splits articles into terms of the full text index (on the worker threads), stage itself if there is no index
+	 */
+	private static OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> getEncodeStage(
+			final OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> stage, FullTextIndexWriter fullText) {
+		if (fullText == null) {
+			return stage;
+		}
+		return new OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle>() {
+			@Override
+			public EncodedArticle process(IDictionaryArticle article) throws Exception {
+				EncodedArticle result = stage.process(article);
+				if (result.content != null) {
+					result.terms = FullTextIndexWriter.tokenize(new String(result.content, ARTICLE_CHARSET));
+				}
+				return result;
+			}
+		};
+	}
+
+	private static void logDuplicates(ConversionMetrics.Phase phase) {
+		if (phase.get("duplicateArticles") > 0) {
+			log.info("Stored " + phase.get("duplicateArticles") + " identical articles once, saved "
+					+ phase.get("duplicateBytes") + " bytes");
+		}
+	}
+
+	/**
+	 * Computes size of the articles section (length prefix + UTF-8 article for each article with keyword)
+	 * without encoding the articles. Duplicates are counted as if they were stored, deduplication happens
+	 * on the encoding workers.
+	 */
+	static long computeArticlesSectionLength(Iterable<IDictionaryArticle> articles) {
+		long result = 0;
+		for (IDictionaryArticle article : articles) {
+			if (article.getKeyword() != null) {
+				// 4 bytes is length of the article
+				result += 4 + IOUtils.utf8Length(article.getTranslation());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Moves len bytes of the file from position from back to position to (to < from), chunk by chunk
+	 */
+	private static void moveBack(FileChannel channel, long from, long to, long len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) Math.min(len, PrspdictWriter.DEFAULT_BUFFER_SIZE));
+		for (long done = 0; done < len; ) {
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), len - done));
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, from + done + buf.position()) < 0) {
+					throw new IOException("Unexpected end of file at " + (from + done + buf.position()));
+				}
+			}
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf, to + done + buf.position());
+			}
+			done += buf.limit();
+		}
+	}
+
+	private static void checkArticlesSectionLength(long result) {
+		if (result > Integer.MAX_VALUE - HEADER_SIZE) {
+			throw new IllegalStateException("Articles section is too big for 32 bit offsets: " + result + ", use large file");
+		}
+	}
+
+	/**
+	 * @return offset as int
+	 * @throws IllegalStateException if section ends beyond 2GB (reachable by 32 bit offsets), rather than writing wrapped offsets
+	 */
+	private static int checkOffset(long offset, String section) {
+		if (offset > Integer.MAX_VALUE) {
+			throw new IllegalStateException(section + " ends beyond 32 bit offsets: " + offset);
+		}
+		return (int) offset;
+	}
+
+	/**
+	 * Reads all articles into memory, combining those with clashing keywords.
+	 */
+	static HashMap<String, IDictionaryArticle> readArticles(IDictionaryParser parser, ConversionMetrics.Phase phase) throws DictionaryParserException {
+		HashMap<String, IDictionaryArticle> articles = new HashMap<String, IDictionaryArticle>(10000);
+		IDictionaryArticle article;
+		long time = System.nanoTime();
+		while ((article = parser.getNext()) != null) {
+			time = phase.addTime("parse", time);
+			phase.add("articles", 1);
+			String keyword = article.getKeyword();
+			IDictionaryArticle existingArticle = articles.get(keyword);
+
+			if (existingArticle != null) {
+				// Append definition
+				existingArticle.append(article);
+				phase.add("duplicatesMerged", 1);
+			} else {
+				articles.put(keyword, article);
+			}
+			time = phase.addTime("merge", time);
+		}
+
+		return articles;
+	}
+
+	/**
+	 * Reads all articles into sorted runs on disk, keeping at most (roughly) memoryBudget bytes in memory.
+	 * Articles with clashing keywords are combined when the runs are merged.
+	 */
+	static ExternalArticleSorter readArticlesExternal(IDictionaryParser parser, long memoryBudget, File tempDir,
+			KeywordOrder order, ConversionMetrics.Phase phase) throws DictionaryParserException, IOException {
+		ExternalArticleSorter sorter = new ExternalArticleSorter(memoryBudget, tempDir, order);
+		try {
+			IDictionaryArticle article;
+			long time = System.nanoTime();
+			while ((article = parser.getNext()) != null) {
+				time = phase.addTime("parse", time);
+				phase.add("articles", 1);
+				sorter.add(article);
+				time = phase.addTime("sort", time);
+			}
+			sorter.finish();
+			phase.addTime("sort", time);
+			phase.add("runs", sorter.getRunCount());
+		} catch (IOException e) {
+			sorter.close();
+			throw e;
+		} catch (DictionaryParserException e) {
+			sorter.close();
+			throw e;
+		}
+		return sorter;
+	}
+}
@@ -6,4 +6,8 @@ public class DictionaryParserException extends Exception {
 	public DictionaryParserException(Throwable e) {
 		super(e);
 	}
+
+	public DictionaryParserException(String message) {
+		super(message);
+	}
 }
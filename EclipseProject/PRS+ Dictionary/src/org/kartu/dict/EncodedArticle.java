@@ -0,0 +1,95 @@
+package org.kartu.dict;
+
+import java.util.regex.Pattern;
+
+import org.kartu.OrderedPipeline;
+
+/**
+ * Article in the form it is stored in prspdict file: UTF-8 article body and
+ * word list record (keyword\0short translation\0).
+ *
+ * @author kartu
+ */
+class EncodedArticle {
+	private static final Pattern DASH = Pattern.compile("\\-");
+	private static final Pattern SPACES = Pattern.compile("[\\s]+");
+
+	/**
+	 * Encodes articles on pipeline's worker threads
+	 */
+	static final OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> ENCODE =
+			new OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle>() {
+		@Override
+		public EncodedArticle process(IDictionaryArticle article) {
+			return new EncodedArticle(article);
+		}
+	};
+
+	/**
+	 * Encodes articles and computes digests of their contents, see {@link ArticleDeduplicator}
+	 */
+	static final OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> ENCODE_WITH_DIGEST =
+			new OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle>() {
+		@Override
+		public EncodedArticle process(IDictionaryArticle article) {
+			EncodedArticle result = new EncodedArticle(article);
+			if (result.content != null) {
+				result.digest = ArticleDeduplicator.digest(result.content);
+			}
+			return result;
+		}
+	};
+
+	final String keyword;
+	final byte[] content;
+	final byte[] wordListRecord;
+	// digest of the article source, null if not known, see IncrementalBuild
+	final byte[] sum;
+	// digest of the content, null if not computed
+	byte[] digest;
+	// distinct terms of the content, null unless full text index is built, see FullTextIndexWriter
+	String[] terms;
+
+	EncodedArticle(String keyword, byte[] content, byte[] wordListRecord, byte[] sum) {
+		this.keyword = keyword;
+		this.content = content;
+		this.wordListRecord = wordListRecord;
+		this.sum = sum;
+	}
+
+	EncodedArticle(IDictionaryArticle article) {
+		this(article, null);
+	}
+
+	/**
+	 * @param article article to encode, if it has no keyword, content and word list record are null
+	 * @param sum digest of the article source
+	 */
+	EncodedArticle(IDictionaryArticle article, byte[] sum) {
+		this.keyword = article.getKeyword();
+		this.sum = sum;
+		if (keyword == null) {
+			this.content = null;
+			this.wordListRecord = null;
+			return;
+		}
+
+		// translation
+		this.content = article.getTranslation().getBytes(Converter.ARTICLE_CHARSET);
+
+		this.wordListRecord = encodeWordListRecord(article);
+	}
+
+	/**
+	 * @return keyword + short translation (aka word list record) of the article with keyword
+	 */
+	static byte[] encodeWordListRecord(IDictionaryArticle article) {
+		String shortTranslation = article.getShortTranslation();
+		int shortTranslationLen = Math.min(Converter.SHORT_TRANSLATION_LEN, shortTranslation.length());
+		shortTranslation = shortTranslation.substring(0, shortTranslationLen);
+		shortTranslation = DASH.matcher(shortTranslation).replaceAll(" ");
+		shortTranslation = SPACES.matcher(shortTranslation).replaceAll(" ");
+		shortTranslation = article.getKeyword() + '\0' + shortTranslation + '\0';
+		return shortTranslation.getBytes(Converter.ARTICLE_CHARSET);
+	}
+}
@@ -0,0 +1,341 @@
+package org.kartu.dict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sorts articles by keyword using bounded amount of memory, see {@link KeywordOrder}.
+ *
+ * Articles are collected in memory until memory budget is reached, then they are
+ * sorted and written into temporary "run" file as (keyword, encoded article, short translation)
+ * records. Runs are k-way merged on iteration, articles with clashing keywords are combined
+ * the same way {@link Article#append(IDictionaryArticle)} does it.
+ *
+ * @author kartu
+ */
+public class ExternalArticleSorter implements Iterable<IDictionaryArticle> {
+	private static final Logger log = Logger.getLogger(ExternalArticleSorter.class);
+	private static final int IO_BUF_SIZE = 64 * 1024;
+	// Rough per record overhead of object headers, references and array lengths
+	private static final int RECORD_OVERHEAD = 96;
+	private static final byte NEW_LINE = '\n';
+
+	private final long memoryBudget;
+	private final File tempDir;
+	// null means String order
+	private final KeywordOrder order;
+	private final List<File> runs = new ArrayList<File>();
+	private List<Record> buffer = new ArrayList<Record>();
+	private long bufferSize = 0;
+	private long nRecords = 0;
+	private long articlesSectionBound = 0;
+
+	/**
+	 * @param memoryBudget approximate number of bytes that can be kept in memory before spilling a run
+	 * @param tempDir directory for run files, null means system default temp directory
+	 */
+	public ExternalArticleSorter(long memoryBudget, File tempDir) {
+		this(memoryBudget, tempDir, null);
+	}
+
+	/**
+	 * @param order order of the keywords, null means {@link String#compareTo(String)}
+	 */
+	public ExternalArticleSorter(long memoryBudget, File tempDir, KeywordOrder order) {
+		this.memoryBudget = memoryBudget;
+		this.tempDir = tempDir;
+		this.order = order;
+	}
+
+	/**
+	 * Adds article, spilling sorted run to disk if memory budget is exceeded.
+	 * Articles without keyword are ignored.
+	 */
+	public void add(IDictionaryArticle article) throws IOException {
+		String keyword = article.getKeyword();
+		if (keyword == null) {
+			return;
+		}
+
+		Record record = new Record(keyword, article.getTranslation().getBytes(Converter.ARTICLE_CHARSET),
+				article.getShortTranslation());
+		record.setKey(order);
+		buffer.add(record);
+		bufferSize += record.size();
+		nRecords++;
+		articlesSectionBound += 4 + record.content.length;
+
+		if (bufferSize >= memoryBudget) {
+			spill();
+		}
+	}
+
+	/**
+	 * Writes what is left in memory to disk. Must be called before iterating.
+	 */
+	public void finish() throws IOException {
+		if (buffer.size() > 0 || runs.isEmpty()) {
+			spill();
+		}
+		buffer = null;
+		log.info("Sorted " + nRecords + " articles into " + runs.size() + " run(s)");
+	}
+
+	/**
+	 * @return number of runs spilled so far
+	 */
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * @return upper bound of the articles section length (length prefix and content of every article added),
+	 * 		merging articles with clashing keywords only makes it shorter
+	 */
+	public long getArticlesSectionBound() {
+		return articlesSectionBound;
+	}
+
+	/**
+	 * Deletes run files.
+	 */
+	public void close() {
+		for (File run : runs) {
+			if (!run.delete()) {
+				run.deleteOnExit();
+			}
+		}
+		runs.clear();
+	}
+
+	/**
+	 * @return merged articles in keyword order, each iterator opens the runs anew
+	 */
+	@Override
+	public Iterator<IDictionaryArticle> iterator() {
+		try {
+			return new MergingIterator();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// Sorts buffered records and writes them into a new run file
+	private void spill() throws IOException {
+		// stable sort, duplicates stay in the input order
+		Collections.sort(buffer, Record.KEYWORD_ORDER);
+
+		File run = File.createTempFile("prspDictRun", ".tmp", tempDir);
+		run.deleteOnExit();
+		runs.add(run);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUF_SIZE));
+		try {
+			for (Record record : buffer) {
+				record.write(out);
+			}
+		} finally {
+			out.close();
+		}
+		log.debug("Spilled run " + run + " (" + buffer.size() + " articles)");
+
+		buffer.clear();
+		bufferSize = 0;
+	}
+
+	// Appends content the same way Article.append does (new line separated)
+	static byte[] appendContent(byte[] content, byte[] appended) {
+		boolean addNewLine = content.length == 0 || content[content.length - 1] != NEW_LINE;
+		byte[] result = new byte[content.length + (addNewLine ? 1 : 0) + appended.length];
+		System.arraycopy(content, 0, result, 0, content.length);
+		if (addNewLine) {
+			result[content.length] = NEW_LINE;
+		}
+		System.arraycopy(appended, 0, result, result.length - appended.length, appended.length);
+		return result;
+	}
+
+	/**
+	 * Single (keyword, encoded article, short translation) tuple
+	 */
+	static class Record {
+		static final Comparator<Record> KEYWORD_ORDER = new Comparator<Record>() {
+			@Override
+			public int compare(Record r1, Record r2) {
+				if (r1.key != null && r2.key != null) {
+					return KeywordOrder.compare(r1.key, r2.key);
+				}
+				return r1.keyword.compareTo(r2.keyword);
+			}
+		};
+
+		final String keyword;
+		byte[] content;
+		final String shortTranslation;
+		// collation key of the keyword, not persisted
+		CollationKey key;
+
+		Record(String keyword, byte[] content, String shortTranslation) {
+			this.keyword = keyword;
+			this.content = content;
+			this.shortTranslation = shortTranslation;
+		}
+
+		void setKey(KeywordOrder order) {
+			key = order != null ? order.getKey(keyword) : null;
+		}
+
+		long size() {
+			// collation key takes roughly as much as the keyword itself
+			int keywordCopies = key != null ? 2 : 1;
+			return RECORD_OVERHEAD + content.length + 2L * (keywordCopies * keyword.length() + shortTranslation.length());
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			writeBytes(out, keyword.getBytes(Converter.ARTICLE_CHARSET));
+			writeBytes(out, content);
+			writeBytes(out, shortTranslation.getBytes(Converter.ARTICLE_CHARSET));
+		}
+
+		static Record read(DataInputStream in) throws IOException {
+			byte[] keyword;
+			try {
+				keyword = readBytes(in);
+			} catch (EOFException e) {
+				return null;
+			}
+			byte[] content = readBytes(in);
+			byte[] shortTranslation = readBytes(in);
+			return new Record(new String(keyword, Converter.ARTICLE_CHARSET), content,
+					new String(shortTranslation, Converter.ARTICLE_CHARSET));
+		}
+
+		private static void writeBytes(DataOutputStream out, byte[] buf) throws IOException {
+			out.writeInt(buf.length);
+			out.write(buf);
+		}
+
+		private static byte[] readBytes(DataInputStream in) throws IOException {
+			byte[] buf = new byte[in.readInt()];
+			in.readFully(buf);
+			return buf;
+		}
+	}
+
+	/**
+	 * Reads records of a single run
+	 */
+	private static class RunReader {
+		final int index;
+		final DataInputStream in;
+		final KeywordOrder order;
+		Record current;
+
+		RunReader(int index, File run, KeywordOrder order) throws IOException {
+			this.index = index;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUF_SIZE));
+			this.order = order;
+			advance();
+		}
+
+		void advance() throws IOException {
+			current = Record.read(in);
+			if (current == null) {
+				in.close();
+			} else {
+				current.setKey(order);
+			}
+		}
+	}
+
+	/**
+	 * K-way merge of all runs, ties are resolved by run index to keep the input order
+	 */
+	private class MergingIterator implements Iterator<IDictionaryArticle> {
+		private final PriorityQueue<RunReader> queue;
+
+		MergingIterator() throws IOException {
+			if (buffer != null) {
+				throw new IllegalStateException("finish() must be called before iterating");
+			}
+			queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+				@Override
+				public int compare(RunReader r1, RunReader r2) {
+					int result = Record.KEYWORD_ORDER.compare(r1.current, r2.current);
+					return result != 0 ? result : r1.index - r2.index;
+				}
+			});
+			for (int i = 0, n = runs.size(); i < n; i++) {
+				RunReader reader = new RunReader(i, runs.get(i), order);
+				if (reader.current != null) {
+					queue.add(reader);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public IDictionaryArticle next() {
+			if (queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				Record merged = poll();
+				while (!queue.isEmpty() && merged.keyword.equals(queue.peek().current.keyword)) {
+					merged.content = appendContent(merged.content, poll().content);
+				}
+				return new MergedArticle(merged);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		// Takes the smallest record, advancing its run
+		private Record poll() throws IOException {
+			RunReader reader = queue.poll();
+			Record result = reader.current;
+			reader.advance();
+			if (reader.current != null) {
+				queue.add(reader);
+			}
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Article restored from run files
+	 */
+	private static class MergedArticle extends Article {
+		MergedArticle(Record record) {
+			this.keyword = record.keyword;
+			this.translation = new String(record.content, Converter.ARTICLE_CHARSET);
+			this.shortTranslation = record.shortTranslation;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.kartu.dict;
+
+/**
+ * Front codes word list records: keyword is stored as the number of leading (UTF-8) bytes it shares
+ * with the previous keyword followed by the rest of it. Every restartInterval-th record (restart point)
+ * keeps the whole keyword, so that a page of the word list can be decoded starting at the nearest restart point.
+ *
+ * Front coded record:
+ * 		shared prefix length (uint8) - 0 at restart points
+ * 		rest of the keyword (UTF8)
+ * 		\0
+ * 		short translation (UTF8)
+ * 		\0
+ *
+ * Restart points are listed in restart table, (uint32) offset per restart point.
+ *
+ * @author kartu
+ */
+class FrontCoder {
+	static final int DEFAULT_RESTART_INTERVAL = 16;
+	private static final int MAX_PREFIX = 0xff;
+
+	private final int restartInterval;
+	private byte[] previous = new byte[0];
+	private int previousLength;
+	private int n;
+
+	FrontCoder(int restartInterval) {
+		if (restartInterval <= 0) {
+			throw new IllegalArgumentException("Restart interval must be positive: " + restartInterval);
+		}
+		this.restartInterval = restartInterval;
+	}
+
+	/**
+	 * @param record plain word list record (keyword\0short translation\0)
+	 * @return front coded record
+	 */
+	byte[] encode(byte[] record) {
+		int keywordLength = indexOfZero(record, 0);
+		int prefix = 0;
+		if (n % restartInterval != 0) {
+			int max = Math.min(MAX_PREFIX, Math.min(keywordLength, previousLength));
+			while (prefix < max && record[prefix] == previous[prefix]) {
+				prefix++;
+			}
+		}
+		n++;
+		if (previous.length < keywordLength) {
+			previous = new byte[Math.max(keywordLength, previous.length * 2)];
+		}
+		System.arraycopy(record, 0, previous, 0, keywordLength);
+		previousLength = keywordLength;
+
+		byte[] result = new byte[1 + record.length - prefix];
+		result[0] = (byte) prefix;
+		System.arraycopy(record, prefix, result, 1, record.length - prefix);
+		return result;
+	}
+
+	/**
+	 * @return true if the last encoded record is a restart point
+	 */
+	boolean isRestart() {
+		return (n - 1) % restartInterval == 0;
+	}
+
+	/**
+	 * Rebuilds plain record from the front coded one, using its (known) keyword
+	 */
+	static byte[] toPlainRecord(String keyword, byte[] codedRecord) {
+		byte[] keywordBytes = keyword.getBytes(Converter.ARTICLE_CHARSET);
+		// short translation follows the end of the keyword
+		int start = indexOfZero(codedRecord, 1);
+		byte[] result = new byte[keywordBytes.length + codedRecord.length - start];
+		System.arraycopy(keywordBytes, 0, result, 0, keywordBytes.length);
+		System.arraycopy(codedRecord, start, result, keywordBytes.length, codedRecord.length - start);
+		return result;
+	}
+
+	private static int indexOfZero(byte[] b, int from) {
+		for (int i = from; i < b.length; i++) {
+			if (b[i] == 0) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Word list record is not zero terminated");
+	}
+}
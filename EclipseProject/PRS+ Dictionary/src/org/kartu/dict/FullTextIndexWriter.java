@@ -0,0 +1,372 @@
+package org.kartu.dict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Builds full text index of article bodies: dictionary of folded terms (see {@link KeyNormalizer}) and
+ * posting list of article offsets of each term.
+ *
+ * Articles have to be added in the order of their offsets, so that posting lists are sorted as they grow
+ * and are kept as varint coded deltas. Postings are collected in memory until memory budget is reached,
+ * then they are written, sorted by term, into temporary "run" file. Runs are k-way merged when the index
+ * is written, posting lists of a term are concatenated in the order of the runs
+ * (the same way {@link ExternalArticleSorter} does it for articles).
+ *
+ * Section layout (offsets are absolute, or relative to index base of large file, see {@link Converter}):
+ *  	posting list* (in term order): number of articles (varint), article offset deltas (varint)
+ *  	terms: zero terminated UTF8 terms (in {@link String#compareTo(String)} order)
+ *  	term table: term offset, posting list offset (uint32 * 2 * number of terms)
+ *
+ * Varints are little endian groups of 7 bits, high bit is set on all but the last byte.
+ *
+ * @author kartu
+ */
+class FullTextIndexWriter {
+	private static final Logger log = Logger.getLogger(FullTextIndexWriter.class);
+	private static final int IO_BUF_SIZE = 64 * 1024;
+	// Rough per term overhead of the map entry, the string and the posting list
+	private static final int TERM_OVERHEAD = 128;
+	private static final int INITIAL_POSTINGS_SIZE = 8;
+	// Longer tokens are not words (base64, long numbers etc.)
+	static final int MAX_TERM_LENGTH = 64;
+	// term offset, posting list offset
+	static final int TERM_TABLE_ENTRY_SIZE = 4 + 4;
+
+	private final long memoryBudget;
+	private final File tempDir;
+	private final List<File> runs = new ArrayList<File>();
+	private Map<String, Postings> postings = new HashMap<String, Postings>();
+	private long postingsSize = 0;
+	private long nPostings = 0;
+	private int nTerms = 0;
+
+	/**
+	 * Posting list of a single term
+	 */
+	private static class Postings {
+		byte[] data = new byte[INITIAL_POSTINGS_SIZE];
+		int length;
+		int count;
+		// the last article added, deltas are unsigned, so are offsets
+		int last;
+
+		// @return number of bytes the list has grown by
+		int add(int article) {
+			int grown = 0;
+			if (length + 5 > data.length) {
+				grown = data.length;
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			length = writeVarint(article - last, data, length);
+			last = article;
+			count++;
+			return grown;
+		}
+	}
+
+	/**
+	 * @param memoryBudget approximate number of bytes of postings that can be kept in memory before spilling a run
+	 * @param tempDir directory for run files, null means system default temp directory
+	 */
+	FullTextIndexWriter(long memoryBudget, File tempDir) {
+		this.memoryBudget = memoryBudget;
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Splits text into terms: runs of letters and digits, folded by {@link KeyNormalizer}
+	 *
+	 * @return distinct terms, in order of their first occurrence
+	 */
+	static String[] tokenize(String text) {
+		LinkedHashSet<String> result = new LinkedHashSet<String>();
+		StringBuilder term = new StringBuilder();
+		for (int i = 0, n = text.length(); i <= n; i++) {
+			char c = i < n ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				term.append(KeyNormalizer.normalize(c));
+			} else if (term.length() > 0) {
+				if (term.length() <= MAX_TERM_LENGTH) {
+					result.add(term.toString());
+				}
+				term.setLength(0);
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Adds article to posting lists of its terms, spilling run to disk if memory budget is exceeded
+	 *
+	 * @param article offset (number, in large file) of the article, greater (unsigned) than offsets of the articles added before
+	 * @param terms distinct terms of the article, see {@link #tokenize(String)}
+	 */
+	void add(int article, String[] terms) throws IOException {
+		for (String term : terms) {
+			Postings list = postings.get(term);
+			if (list == null) {
+				list = new Postings();
+				postings.put(term, list);
+				postingsSize += TERM_OVERHEAD + term.length() * 2 + INITIAL_POSTINGS_SIZE;
+			}
+			postingsSize += list.add(article);
+		}
+		nPostings += terms.length;
+		if (postingsSize >= memoryBudget) {
+			spill();
+		}
+	}
+
+	/**
+	 * @return number of postings added so far
+	 */
+	long getPostingCount() {
+		return nPostings;
+	}
+
+	/**
+	 * @return number of terms written, see {@link #write(FileChannel, long, int)}
+	 */
+	int getTermCount() {
+		return nTerms;
+	}
+
+	/**
+	 * @return number of runs spilled so far
+	 */
+	int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Writes the index, merging runs (if any) with what is left in memory
+	 *
+	 * @param base added to offsets to get file positions (index base of large file, 0 otherwise)
+	 * @return offset of the term table, the section ends right after it
+	 */
+	int write(FileChannel channel, long base, int offset) throws IOException {
+		if (!runs.isEmpty() && !postings.isEmpty()) {
+			spill();
+		}
+		PrspdictWriter postingsWriter = new PrspdictWriter(channel, base + offset);
+		List<String> terms = new ArrayList<String>();
+		List<Integer> postingsOffsets = new ArrayList<Integer>();
+		long position = offset;
+		if (runs.isEmpty()) {
+			for (String term : getSortedTerms()) {
+				Postings list = postings.get(term);
+				terms.add(term);
+				postingsOffsets.add((int) position);
+				position += writePostings(postingsWriter, list.count, Arrays.asList(list));
+			}
+		} else {
+			PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					RunReader run = new RunReader(runs.get(i), i);
+					if (run.next()) {
+						queue.add(run);
+					} else {
+						run.close();
+					}
+				}
+				List<Postings> chunks = new ArrayList<Postings>();
+				while (!queue.isEmpty()) {
+					// runs of the same term come out in run order, their articles are in order too
+					String term = queue.peek().term;
+					int count = 0;
+					chunks.clear();
+					while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+						RunReader run = queue.poll();
+						chunks.add(run.postings);
+						count += run.postings.count;
+						if (run.next()) {
+							queue.add(run);
+						} else {
+							run.close();
+						}
+					}
+					terms.add(term);
+					postingsOffsets.add((int) position);
+					position += writePostings(postingsWriter, count, chunks);
+				}
+			} finally {
+				for (RunReader run : queue) {
+					run.close();
+				}
+			}
+		}
+		postings = null;
+		nTerms = terms.size();
+
+		// terms, then the table pointing to them
+		int[] termOffsets = new int[nTerms];
+		for (int i = 0; i < nTerms; i++) {
+			termOffsets[i] = (int) position;
+			position += postingsWriter.write((terms.get(i) + '\0').getBytes(Converter.ARTICLE_CHARSET));
+		}
+		if (position + (long) nTerms * TERM_TABLE_ENTRY_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Full text index is too big: " + (position - offset));
+		}
+		int tableOffset = (int) position;
+		for (int i = 0; i < nTerms; i++) {
+			postingsWriter.writeInt(termOffsets[i]);
+			postingsWriter.writeInt(postingsOffsets.get(i));
+		}
+		postingsWriter.flush();
+		log.debug("Full text index: " + nTerms + " terms, " + nPostings + " postings, " + runs.size() + " run(s)");
+		return tableOffset;
+	}
+
+	/**
+	 * Deletes run files.
+	 */
+	void close() {
+		for (File run : runs) {
+			if (!run.delete()) {
+				run.deleteOnExit();
+			}
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Writes posting list made of chunks, the first delta of each chunk but the first is relative to 0
+	 * (chunks come from different runs) and is rebased on the last article of the previous chunk
+	 *
+	 * @return number of bytes written
+	 */
+	private static int writePostings(PrspdictWriter out, int count, List<Postings> chunks) throws IOException {
+		byte[] varint = new byte[5];
+		int result = out.write(varint, 0, writeVarint(count, varint, 0));
+		int last = 0;
+		for (Postings chunk : chunks) {
+			int[] first = readVarint(chunk.data, 0);
+			result += out.write(varint, 0, writeVarint(first[0] - last, varint, 0));
+			result += out.write(chunk.data, first[1], chunk.length - first[1]);
+			last = chunk.last;
+		}
+		return result;
+	}
+
+	// Terms in memory in String order
+	private String[] getSortedTerms() {
+		String[] result = postings.keySet().toArray(new String[postings.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	// Writes postings sorted by term into a new run file
+	private void spill() throws IOException {
+		File run = File.createTempFile("prspDictPostings", ".tmp", tempDir);
+		run.deleteOnExit();
+		runs.add(run);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUF_SIZE));
+		try {
+			for (String term : getSortedTerms()) {
+				Postings list = postings.get(term);
+				out.writeUTF(term);
+				out.writeInt(list.count);
+				out.writeInt(list.last);
+				out.writeInt(list.length);
+				out.write(list.data, 0, list.length);
+			}
+		} finally {
+			out.close();
+		}
+		log.debug("Spilled run " + run + " (" + postings.size() + " terms)");
+
+		postings.clear();
+		postingsSize = 0;
+	}
+
+	/**
+	 * Reads run file term by term
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		private final DataInputStream in;
+		// runs of the same term are merged in this order
+		private final int index;
+		private String term;
+		private Postings postings;
+
+		RunReader(File file, int index) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUF_SIZE));
+			this.index = index;
+		}
+
+		/**
+		 * @return false if there are no more terms
+		 */
+		boolean next() throws IOException {
+			try {
+				term = in.readUTF();
+			} catch (EOFException e) {
+				return false;
+			}
+			postings = new Postings();
+			postings.count = in.readInt();
+			postings.last = in.readInt();
+			postings.length = in.readInt();
+			postings.data = new byte[postings.length];
+			in.readFully(postings.data);
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(RunReader o) {
+			int result = term.compareTo(o.term);
+			return result != 0 ? result : index - o.index;
+		}
+	}
+
+	/**
+	 * Writes unsigned varint
+	 *
+	 * @return position after the varint
+	 */
+	static int writeVarint(int n, byte[] buf, int position) {
+		while ((n & ~0x7f) != 0) {
+			buf[position++] = (byte) (n | 0x80);
+			n >>>= 7;
+		}
+		buf[position++] = (byte) n;
+		return position;
+	}
+
+	// value and position after the varint
+	private static int[] readVarint(byte[] buf, int position) {
+		int result = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf[position++];
+			result |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return new int[] {result, position};
+	}
+}
@@ -0,0 +1,29 @@
+package org.kartu.dict;
+
+/**
+ * Range of articles that can be read independently of the rest of the dictionary,
+ * splits like a spliterator: into a prefix, handed out, and the rest, kept by the range itself.
+ * 
+ * @author kartu
+ * 
+ * @see ISplittableParser
+ */
+public interface IArticleRange {
+	/**
+	 * @return next article of the range or null, if end of the range was reached.
+	 * @throws DictionaryParserException
+	 */
+	IDictionaryArticle next() throws DictionaryParserException;
+
+	/**
+	 * Splits off the first part of the articles not read yet, the range keeps the rest
+	 * 
+	 * @return the first part, null if range cannot be split
+	 */
+	IArticleRange trySplit();
+
+	/**
+	 * @return approximate number of articles not read yet
+	 */
+	long estimateSize();
+}
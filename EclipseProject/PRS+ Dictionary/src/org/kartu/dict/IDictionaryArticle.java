@@ -9,5 +9,9 @@ public interface IDictionaryArticle {
 	String getKeyword();
 	String getTranslation();
 	String getShortTranslation();
+	/**
+	 * @return markup the article is rendered from, null if not known (e.g. dropped after rendering)
+	 */
+	String getSource();
 	void append(IDictionaryArticle article);
 }
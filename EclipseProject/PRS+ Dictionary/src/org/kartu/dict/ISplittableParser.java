@@ -0,0 +1,19 @@
+package org.kartu.dict;
+
+/**
+ * Parser whose articles can be read in parallel: ranges of articles are independent of each other
+ * and can be read (and rendered) on different threads.
+ * 
+ * @author kartu
+ * 
+ * @see ParallelParser
+ */
+public interface ISplittableParser extends IDictionaryParser {
+	/**
+	 * Returns all articles not read yet as a single range, {@link #getNext()} returns null afterwards.
+	 * Ranges stay valid until the parser is closed.
+	 * 
+	 * @throws DictionaryParserException
+	 */
+	IArticleRange split() throws DictionaryParserException;
+}
@@ -0,0 +1,381 @@
+package org.kartu.dict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.log4j.Logger;
+import org.kartu.IOUtils;
+import org.kartu.OrderedPipeline;
+
+/**
+ * Rebuilds prspdict file reusing articles of its previous version.
+ *
+ * Sidecar file (prspdict file name + {@link #EXT_SUMS}) keeps MD5 of each article's source along with
+ * location of the article and its word list record in the prspdict file. Articles whose source hasn't
+ * changed since the previous build are copied from the previous file as they are, only new and changed
+ * articles are rendered. Word list and radix are always rebuilt.
+ *
+ * Articles without known source (see {@link IDictionaryArticle#getSource()}) are always rendered.
+ *
+ * Sidecar file starts with version of the converter that rendered the articles, so that articles rendered
+ * by another version are not reused, followed by length and modification time of the prspdict file it was
+ * written for, so that sums of a file rebuilt or replaced since are not used.
+ *
+ * @author kartu
+ */
+class IncrementalBuild {
+	static final String EXT_SUMS = ".sums";
+	private static final Logger log = Logger.getLogger(IncrementalBuild.class);
+	private static final long MAGIC = 0x5052535053554d53L; // "PRSPSUMS"
+	private static final int VERSION = 3;
+	private static final int IO_BUF_SIZE = 64 * 1024;
+	// Prepared articles in flight per worker thread
+	private static final int ARTICLES_PER_THREAD = 256;
+
+	private static final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	// Entries of the previous build, by keyword
+	private final HashMap<String, Entry> previous;
+	// Previous prspdict file, null if there is nothing to reuse
+	private final RandomAccessFile previousFile;
+	// Previous file's word list records are front coded, see FrontCoder
+	private final boolean previousFrontCoded;
+	// Entries of the current build, in the order articles were written
+	private final List<Entry> current = new ArrayList<Entry>();
+	private long articlesSectionLength;
+	private long nReused;
+
+	/**
+	 * Location and source digest of a single article
+	 */
+	private static class Entry {
+		final String keyword;
+		final byte[] sum;
+		// offset of the article's length prefix
+		final long articleOffset;
+		final int articleLength;
+		final long wordListOffset;
+		final int wordListLength;
+
+		Entry(String keyword, byte[] sum, long articleOffset, int articleLength, long wordListOffset, int wordListLength) {
+			this.keyword = keyword;
+			this.sum = sum;
+			this.articleOffset = articleOffset;
+			this.articleLength = articleLength;
+			this.wordListOffset = wordListOffset;
+			this.wordListLength = wordListLength;
+		}
+	}
+
+	/**
+	 * Article either rendered anew or to be copied from the previous file
+	 */
+	private class PreparedArticle implements IDictionaryArticle {
+		final String keyword;
+		final byte[] sum;
+		// rendered article, null if reused
+		final IDictionaryArticle article;
+		// previous location, null if not reused
+		final Entry entry;
+
+		PreparedArticle(IDictionaryArticle article, byte[] sum, Entry entry) {
+			this.keyword = article.getKeyword();
+			this.sum = sum;
+			this.article = entry == null ? article : null;
+			this.entry = entry;
+		}
+
+		@Override
+		public String getKeyword() {
+			return keyword;
+		}
+
+		@Override
+		public String getTranslation() {
+			if (article != null) {
+				return article.getTranslation();
+			}
+			try {
+				return new String(read(entry.articleOffset + 4, entry.articleLength), Converter.ARTICLE_CHARSET);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public String getShortTranslation() {
+			if (article != null) {
+				return article.getShortTranslation();
+			}
+			try {
+				String record = new String(readWordListRecord(entry), Converter.ARTICLE_CHARSET);
+				// keyword\0short translation\0
+				return record.substring(record.indexOf('\0') + 1, record.length() - 1);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public String getSource() {
+			return article != null ? article.getSource() : null;
+		}
+
+		@Override
+		public void append(IDictionaryArticle article) {
+			throw new UnsupportedOperationException();
+		}
+
+		long getContentLength() {
+			return entry != null ? entry.articleLength : IOUtils.utf8Length(article.getTranslation());
+		}
+	}
+
+	/**
+	 * Computes source digest, renders article if it cannot be reused
+	 */
+	private final OrderedPipeline.Stage<IDictionaryArticle, PreparedArticle> prepare =
+			new OrderedPipeline.Stage<IDictionaryArticle, PreparedArticle>() {
+		@Override
+		public PreparedArticle process(IDictionaryArticle article) {
+			byte[] sum = null;
+			String source = article.getSource();
+			if (source != null) {
+				sum = digest.get().digest(source.getBytes(Converter.ARTICLE_CHARSET));
+			}
+			Entry entry = previous.get(article.getKeyword());
+			if (entry == null || sum == null || !Arrays.equals(sum, entry.sum)) {
+				// render on the worker thread
+				article.getTranslation();
+				article.getShortTranslation();
+				entry = null;
+			}
+			return new PreparedArticle(article, sum, entry);
+		}
+	};
+
+	/**
+	 * Encodes prepared articles, reused ones are read from the previous file
+	 */
+	final OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle> encode =
+			new OrderedPipeline.Stage<IDictionaryArticle, EncodedArticle>() {
+		@Override
+		public EncodedArticle process(IDictionaryArticle article) {
+			PreparedArticle prepared = (PreparedArticle) article;
+			if (prepared.keyword == null || prepared.entry == null) {
+				return new EncodedArticle(prepared.article, prepared.sum);
+			}
+			Entry entry = prepared.entry;
+			try {
+				return new EncodedArticle(prepared.keyword, read(entry.articleOffset + 4, entry.articleLength),
+						readWordListRecord(entry), prepared.sum);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private IncrementalBuild(HashMap<String, Entry> previous, RandomAccessFile previousFile, boolean previousFrontCoded) {
+		this.previous = previous;
+		this.previousFile = previousFile;
+		this.previousFrontCoded = previousFrontCoded;
+	}
+
+	/**
+	 * Opens previous build of the given prspdict file. If file or its sums don't exist or don't match,
+	 * nothing is reused.
+	 */
+	static IncrementalBuild open(File prspdict) throws IOException {
+		File sums = getSumsFile(prspdict);
+		HashMap<String, Entry> previous = new HashMap<String, Entry>();
+		if (!prspdict.isFile() || !sums.isFile()) {
+			log.info("No previous build of " + prspdict + ", converting from scratch");
+			return new IncrementalBuild(previous, null, false);
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sums), IO_BUF_SIZE));
+		try {
+			if (in.readLong() != MAGIC || in.readInt() != VERSION) {
+				log.warn(sums + " doesn't match " + prspdict + ", converting from scratch");
+				return new IncrementalBuild(previous, null, false);
+			}
+			String converterVersion = in.readUTF();
+			if (!converterVersion.equals(Converter.getVersion())) {
+				log.warn(prspdict + " was converted by version " + converterVersion + ", converting from scratch");
+				return new IncrementalBuild(previous, null, false);
+			}
+			if (in.readLong() != prspdict.length() || in.readLong() != prspdict.lastModified()) {
+				log.warn(prspdict + " has changed since " + sums + " was written, converting from scratch");
+				return new IncrementalBuild(previous, null, false);
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				byte[] keyword = new byte[in.readInt()];
+				in.readFully(keyword);
+				byte[] sum = new byte[in.readUnsignedByte()];
+				in.readFully(sum);
+				Entry entry = new Entry(new String(keyword, Converter.ARTICLE_CHARSET), sum,
+						in.readLong(), in.readInt(), in.readLong(), in.readInt());
+				previous.put(entry.keyword, entry);
+			}
+		} finally {
+			in.close();
+		}
+		RandomAccessFile previousFile = new RandomAccessFile(prspdict, "r");
+		previousFile.seek(Converter.VERSION_LO_OFFSET);
+		int flags = previousFile.read();
+		if ((flags & Converter.VERSION_LO_COMPRESSED) != 0) {
+			previousFile.close();
+			log.warn("Articles of " + prspdict + " are compressed, converting from scratch");
+			return new IncrementalBuild(new HashMap<String, Entry>(), null, false);
+		}
+		if ((flags & Converter.VERSION_LO_LARGE_FILE) != 0) {
+			// word list offsets are relative to index base
+			previousFile.close();
+			log.warn(prspdict + " is a large file, converting from scratch");
+			return new IncrementalBuild(new HashMap<String, Entry>(), null, false);
+		}
+		log.info("Loaded " + previous.size() + " article sums of the previous build");
+		return new IncrementalBuild(previous, previousFile, (flags & Converter.VERSION_LO_FRONT_CODED) != 0);
+	}
+
+	static File getSumsFile(File prspdict) {
+		return new File(prspdict.getPath() + EXT_SUMS);
+	}
+
+	/**
+	 * Computes digests and renders articles that cannot be reused, on nThreads threads.
+	 *
+	 * @return prepared articles, in the same order, to be encoded by {@link #encode}
+	 */
+	List<IDictionaryArticle> prepare(Collection<IDictionaryArticle> articles, int nThreads) throws ExecutionException, InterruptedException {
+		List<IDictionaryArticle> result = new ArrayList<IDictionaryArticle>(articles.size());
+		OrderedPipeline<IDictionaryArticle, PreparedArticle> pipeline = new OrderedPipeline<IDictionaryArticle, PreparedArticle>(
+				"incremental", articles.iterator(), prepare, nThreads, nThreads * ARTICLES_PER_THREAD);
+		try {
+			PreparedArticle article;
+			while ((article = pipeline.take()) != null) {
+				result.add(article);
+				if (article.keyword != null) {
+					// 4 bytes is length of the article
+					articlesSectionLength += 4 + article.getContentLength();
+					if (article.entry != null) {
+						nReused++;
+					}
+				}
+			}
+		} finally {
+			pipeline.close();
+		}
+		log.info("Reusing " + nReused + " of " + result.size() + " articles");
+		return result;
+	}
+
+	/**
+	 * @return number of prepared articles copied from the previous file
+	 */
+	long getReusedCount() {
+		return nReused;
+	}
+
+	/**
+	 * @return size of the articles section of the prepared articles
+	 */
+	long getArticlesSectionLength() {
+		return articlesSectionLength;
+	}
+
+	/**
+	 * Records location of the written article
+	 * 
+	 * @param wordListLength length of the word list record as written (it might be front coded)
+	 */
+	void add(EncodedArticle article, long articleOffset, long wordListOffset, int wordListLength) {
+		if (article.sum != null) {
+			current.add(new Entry(article.keyword, article.sum, articleOffset, article.content.length,
+					wordListOffset, wordListLength));
+		}
+	}
+
+	/**
+	 * Writes sums of the current build
+	 */
+	void save(File prspdict, File sums) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sums), IO_BUF_SIZE));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(Converter.getVersion());
+			// file is renamed afterwards, which keeps its modification time
+			out.writeLong(prspdict.length());
+			out.writeLong(prspdict.lastModified());
+			out.writeInt(current.size());
+			for (Entry entry : current) {
+				byte[] keyword = entry.keyword.getBytes(Converter.ARTICLE_CHARSET);
+				out.writeInt(keyword.length);
+				out.write(keyword);
+				out.writeByte(entry.sum.length);
+				out.write(entry.sum);
+				out.writeLong(entry.articleOffset);
+				out.writeInt(entry.articleLength);
+				out.writeLong(entry.wordListOffset);
+				out.writeInt(entry.wordListLength);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Closes previous file
+	 */
+	void close() throws IOException {
+		if (previousFile != null) {
+			previousFile.close();
+		}
+	}
+
+	// Plain word list record (keyword\0short translation\0) of the previous file
+	private byte[] readWordListRecord(Entry entry) throws IOException {
+		byte[] record = read(entry.wordListOffset, entry.wordListLength);
+		return previousFrontCoded ? FrontCoder.toPlainRecord(entry.keyword, record) : record;
+	}
+
+	// Positional read from the previous file, safe to call from multiple threads
+	private byte[] read(long position, int len) throws IOException {
+		FileChannel channel = previousFile.getChannel();
+		ByteBuffer buf = ByteBuffer.allocate(len);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of " + previousFile);
+			}
+		}
+		return buf.array();
+	}
+}
@@ -0,0 +1,162 @@
+package org.kartu.dict;
+
+/**
+ * Folds keys for case and accent insensitive lookup: converts characters to lower case and removes accents
+ * the same way PRS+ reader's desaturate() (desaturate.c) does: latin, latin-1 supplement, latin extended-A,
+ * latin extended-B up to U+0240, latin extended additional and cyrillic, other characters are kept as they are.
+ *
+ * Folding is a lookup in a table precomputed for all 64K UTF-16 chars.
+ *
+ * @author kartu
+ */
+public class KeyNormalizer {
+	// Folded chars of U+00C0-U+0240 (latin-1 supplement to latin extended-B), 0 keeps the char as is.
+	// Rows are those of desaturate.c, which has the whole U+0240 row, but maps only its first char
+	private static final int LATIN_FIRST = 0xc0;
+	private static final int LATIN_LAST = 0x240;
+	private static final String LATIN =
+		// U+00C0
+			"aaaaaaaceeeeiiii" +
+		// U+00D0
+			"dnoooooxouuuuyps" +
+		// U+00E0
+			"aaaaaaaceeeeiiii" +
+		// U+00F0
+			"onooooo\0\0uuuuydy" +
+		// U+0100
+			"aaaaaaccccccccdd" +
+		// U+0110
+			"ddeeeeeeeeeegggg" +
+		// U+0120
+			"gggghhhhiiiiiiii" +
+		// U+0130
+			"iliijjkkklilllil" +
+		// U+0140
+			"lllnnnnnnnnnoooo" +
+		// U+0150
+			"oooorrrrrrssssss" +
+		// U+0160
+			"ssttttttuuuuuuuu" +
+		// U+0170
+			"uuuuwwyyyzzzzzzr" +
+		// U+0180
+			"bbbbbbcccddbbdee" +
+		// U+0190
+			"effgyilfkkfasnno" +
+		// U+01A0
+			"\0\0\0\0\0\0rsss\0ttttv" +
+		// U+01B0
+			"uuuyyzz\0\0\0\0z\0\0\0p" +
+		// U+01C0
+			"\0\0\0\0\0\0\0\0\0\0\0\0\0aai" +
+		// U+01D0
+			"ioouuuuuuuuuueaa" +
+		// U+01E0
+			"aaaaggggkkqqqqee" +
+		// U+01F0
+			"j\0\0\0gg\0pnnaaaaoo" +
+		// U+0200
+			"aaaaeeeeiiiioooo" +
+		// U+0210
+			"rrrruuuusstteehh" +
+		// U+0220
+			"ndrruuuusstteehh" +
+		// U+0230
+			"ooyylntjffacctts" +
+		// U+0240
+			"zccbaaeejjqqrfaa";
+
+	// Folded chars of U+1E00-U+1EFF (latin extended additional), 0 keeps the char as is
+	private static final int LATIN_ADDITIONAL_FIRST = 0x1e00;
+	private static final String LATIN_ADDITIONAL =
+		// U+1E00
+			"aabbbbbbccdddddd" +
+		// U+1E10
+			"ddddeeeeeeeeeeff" +
+		// U+1E20
+			"gghhhhhhhhhhiiii" +
+		// U+1E30
+			"kkkkkkllllllllmm" +
+		// U+1E40
+			"mmmmnnnnnnnnoooo" +
+		// U+1E50
+			"oooopppprrrrrrrr" +
+		// U+1E60
+			"sssssssssstttttt" +
+		// U+1E70
+			"ttuuuuuuuuuuvvvv" +
+		// U+1E80
+			"wwwwwwwwwwxxxxyy" +
+		// U+1E90
+			"zzzzzzhtwyar\0\0\0\0" +
+		// U+1EA0
+			"aaaaaaaaaaaaaaaa" +
+		// U+1EB0
+			"aaaaaaaaeeeeeeee" +
+		// U+1EC0
+			"eeeeeeeeiiiioooo" +
+		// U+1ED0
+			"ooooooooooaooooo" +
+		// U+1EE0
+			"ddoouuuuuuuuuuuu" +
+		// U+1EF0
+			"vvyyyyyyyy\0\0\0\0\0\0";
+
+	private static final char[] TABLE = new char[0x10000];
+
+	static {
+		for (int c = 0; c < TABLE.length; c++) {
+			TABLE[c] = (char) c;
+		}
+		// latin
+		for (int c = 'A'; c <= 'Z'; c++) {
+			TABLE[c] = (char) (c + 0x20);
+		}
+		fill(LATIN, LATIN_FIRST, LATIN_LAST);
+		fill(LATIN_ADDITIONAL, LATIN_ADDITIONAL_FIRST, LATIN_ADDITIONAL_FIRST + LATIN_ADDITIONAL.length() - 1);
+		// cyrillic: U+0400-U+040F to U+0450-U+045F, U+0410-U+042F to U+0430-U+044F
+		for (int c = 0x400; c < 0x410; c++) {
+			TABLE[c] = (char) (c + 0x50);
+		}
+		for (int c = 0x410; c < 0x430; c++) {
+			TABLE[c] = (char) (c + 0x20);
+		}
+	}
+
+	private KeyNormalizer() {
+	}
+
+	// Maps chars first..last to folded chars of the table, except for 0s
+	private static void fill(String folded, int first, int last) {
+		for (int c = first; c <= last; c++) {
+			char f = folded.charAt(c - first);
+			if (f != 0) {
+				TABLE[c] = f;
+			}
+		}
+	}
+
+	/**
+	 * @return lower case char without accents
+	 */
+	public static char normalize(char c) {
+		return TABLE[c];
+	}
+
+	/**
+	 * @return key with all its chars folded, the same instance if nothing has changed
+	 */
+	public static String normalize(String key) {
+		for (int i = 0, n = key.length(); i < n; i++) {
+			char c = key.charAt(i);
+			if (TABLE[c] != c) {
+				char[] chars = key.toCharArray();
+				for (int j = i; j < n; j++) {
+					chars[j] = TABLE[chars[j]];
+				}
+				return new String(chars);
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,113 @@
+package org.kartu.dict;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import ds.tree.RadixTreeNode;
+
+/**
+ * Locale aware order of keywords, used for articles, word list and radix children, so that
+ * neighbouring words end up next to each other in the file.
+ *
+ * Collation keys are computed once per keyword, ties (keywords collator considers equal) are resolved
+ * by {@link String#compareTo(String)}, so that the order is total and doesn't depend on the input order.
+ *
+ * Not thread safe (collator isn't), create one per conversion.
+ *
+ * @author kartu
+ */
+public class KeywordOrder {
+	private final Collator collator;
+
+	public KeywordOrder(Locale locale) {
+		this.collator = Collator.getInstance(locale);
+	}
+
+	/**
+	 * @return collation key of the keyword, null for null keyword
+	 */
+	public CollationKey getKey(String keyword) {
+		return keyword == null ? null : collator.getCollationKey(keyword);
+	}
+
+	/**
+	 * Compares keywords by their collation keys. Null keys go last.
+	 */
+	public static int compare(CollationKey key1, CollationKey key2) {
+		if (key1 == null || key2 == null) {
+			return key1 == key2 ? 0 : key1 == null ? 1 : -1;
+		}
+		int result = key1.compareTo(key2);
+		return result != 0 ? result : key1.getSourceString().compareTo(key2.getSourceString());
+	}
+
+	/**
+	 * @return articles sorted by keyword, articles without keyword go last
+	 */
+	public List<IDictionaryArticle> sort(Collection<IDictionaryArticle> articles) {
+		Keyed<IDictionaryArticle>[] keyed = newKeyedArray(articles.size());
+		int i = 0;
+		for (IDictionaryArticle article : articles) {
+			keyed[i++] = new Keyed<IDictionaryArticle>(getKey(article.getKeyword()), article);
+		}
+		Arrays.sort(keyed);
+
+		List<IDictionaryArticle> result = new ArrayList<IDictionaryArticle>(keyed.length);
+		for (Keyed<IDictionaryArticle> k : keyed) {
+			result.add(k.value);
+		}
+		return result;
+	}
+
+	/**
+	 * Sorts children of every node of the tree by their names
+	 */
+	public <T> void sortChildren(RadixTreeNode<T> root) {
+		ArrayList<RadixTreeNode<T>> stack = new ArrayList<RadixTreeNode<T>>();
+		stack.add(root);
+		while (!stack.isEmpty()) {
+			RadixTreeNode<T> node = stack.remove(stack.size() - 1);
+			List<RadixTreeNode<T>> children = node.getChildern();
+			if (children.size() > 1) {
+				Keyed<RadixTreeNode<T>>[] keyed = newKeyedArray(children.size());
+				for (int i = 0; i < keyed.length; i++) {
+					RadixTreeNode<T> child = children.get(i);
+					keyed[i] = new Keyed<RadixTreeNode<T>>(getKey(child.getKey()), child);
+				}
+				Arrays.sort(keyed);
+				for (int i = 0; i < keyed.length; i++) {
+					children.set(i, keyed[i].value);
+				}
+			}
+			stack.addAll(children);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Keyed<T>[] newKeyedArray(int size) {
+		return (Keyed<T>[]) new Keyed<?>[size];
+	}
+
+	/**
+	 * Value decorated with (cached) collation key
+	 */
+	private static class Keyed<T> implements Comparable<Keyed<T>> {
+		final CollationKey key;
+		final T value;
+
+		Keyed(CollationKey key, T value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(Keyed<T> o) {
+			return KeywordOrder.compare(key, o.key);
+		}
+	}
+}
@@ -1,219 +1,292 @@
 package org.kartu.dict;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Properties;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
 
-import org.apache.log4j.Logger;
-import org.kartu.IOUtils;
 import org.kartu.dict.stardict.StardictParser;
 import org.kartu.dict.xdxf.visual.XDXFParser;
 
-import ds.tree.DuplicateKeyException;
-import ds.tree.RadixTreeImpl;
-
 /**
- * PRS+ dictionary file format is:
- *  
- *  (all offsets are absolute)
+ * Command line entry point, converts either single dictionary or a batch of them,
+ * or looks up a batch of words in a prspdict file.
  * 
- *  [header]
- *  [articles]
- *  [word list]
- *  [radix]
- *  
- *  header : 
- *  	"PRSPDICT" (ascii)
- *  	version lo (uint8) 
- *  	version hi (uint8)
- *  	radix offset (uint32)
- *  	... rest is padded with zeros up to 1024 bytes
- *  
- *  articles : article*
- *   
- *  article:
- *  	length (unit32)
- *  	article (utf8 TEXT)
- *  
- *  word list:
- *   	name (UTF8)
- *   	\0
- *   	short translation (up to SHORT_TRANSLATION_LEN chars, UTF8)
- *   	\0
- *  
- *  radix: node*
- *  
- *  node: 
- *  	length - size of the structure in bytes (uint16)
- *  	article offset - (uint32)
- *  	word list offset - (uint32)
- *  	number of child nodes - (uint8)
- *  	offsets of child nodes (uint32 * number of child nodes)
- *  	zero terminated UTF16 names of child nodes (length can be determined by total length of the node)
- *  
  * @author kartu
+ * 
+ * @see Converter
+ * @see BatchConverter
  */
 public class Main {
-	private static final String EXT_PRSPDICT = ".prspdict";
-	private static final Logger log = Logger.getLogger(Main.class);
-	
-	static final int HEADER_SIZE = 1024;
-	static final Charset KEY_CHARSET = Charset.forName("UTF-16LE");
-	static final Charset ARTICLE_CHARSET = Charset.forName("UTF-8");
-	private static final int SHORT_TRANSLATION_LEN = 80;
+	private static final String OPT_EXTERNAL = "-external";
+	private static final String OPT_THREADS = "-threads";
+	private static final String OPT_BATCH = "-batch";
+	private static final String OPT_JOBS = "-jobs";
+	private static final String OPT_MEMORY = "-memory";
+	private static final String OPT_OUT = "-out";
+	private static final String OPT_INCREMENTAL = "-incremental";
+	private static final String OPT_METRICS = "-metrics";
+	private static final String OPT_LOCALE = "-locale";
+	private static final String OPT_FORMAT = "-format";
+	private static final String OPT_CLUSTER = "-cluster";
+	private static final String OPT_COMPRESS = "-compress";
+	private static final String OPT_NO_DEDUP = "-nodedup";
+	private static final String OPT_FRONT_CODE = "-frontcode";
+	private static final String OPT_FOLDED = "-folded";
+	private static final String OPT_FULL_TEXT = "-fulltext";
+	private static final String OPT_LARGE = "-large";
+	private static final String OPT_LOOKUP = "-lookup";
+	// queries of batch lookup are read from stdin
+	private static final String STDIN = "-";
 	
-	public static void main(String[] args) throws IOException, DictionaryParserException {
-		if (args.length < 1 || args.length > 2) {
+	public static void main(String[] args) throws IOException, DictionaryParserException, InterruptedException {
+		// Options go first, followed by input and output file names
+		long externalMemoryBudget = 0;
+		long batchMemoryBudget = 0;
+		int nThreads = 0;
+		int nJobs = 1;
+		String batchSource = null;
+		String outputDir = null;
+		boolean incremental = false;
+		String metricsFileName = null;
+		Locale locale = Locale.ROOT;
+		int formatVersion = RadixSerializer.NODE_FORMAT_1;
+		int radixClusterSize = RadixSerializer.NO_CLUSTERS;
+		int articleBlockSize = 0;
+		boolean deduplicate = true;
+		int wordListRestartInterval = 0;
+		boolean foldedIndex = false;
+		boolean fullTextIndex = false;
+		boolean largeFile = false;
+		String lookupSource = null;
+		int argIdx = 0;
+		while (argIdx < args.length && args[argIdx].startsWith("-")) {
+			String option = args[argIdx++];
+			if (OPT_EXTERNAL.equals(option) && argIdx < args.length) {
+				externalMemoryBudget = Long.parseLong(args[argIdx++]) * 1024 * 1024;
+			} else if (OPT_THREADS.equals(option) && argIdx < args.length) {
+				nThreads = Integer.parseInt(args[argIdx++]);
+			} else if (OPT_BATCH.equals(option) && argIdx < args.length) {
+				batchSource = args[argIdx++];
+			} else if (OPT_JOBS.equals(option) && argIdx < args.length) {
+				nJobs = Math.max(1, Integer.parseInt(args[argIdx++]));
+			} else if (OPT_MEMORY.equals(option) && argIdx < args.length) {
+				batchMemoryBudget = Long.parseLong(args[argIdx++]) * 1024 * 1024;
+			} else if (OPT_OUT.equals(option) && argIdx < args.length) {
+				outputDir = args[argIdx++];
+			} else if (OPT_INCREMENTAL.equals(option)) {
+				incremental = true;
+			} else if (OPT_METRICS.equals(option) && argIdx < args.length) {
+				metricsFileName = args[argIdx++];
+			} else if (OPT_LOCALE.equals(option) && argIdx < args.length) {
+				locale = parseLocale(args[argIdx++]);
+			} else if (OPT_CLUSTER.equals(option) && argIdx < args.length) {
+				radixClusterSize = Integer.parseInt(args[argIdx++]);
+			} else if (OPT_COMPRESS.equals(option) && argIdx < args.length) {
+				articleBlockSize = Integer.parseInt(args[argIdx++]);
+				if (articleBlockSize <= 0 || articleBlockSize > ArticleBlockWriter.MAX_BLOCK_SIZE) {
+					printUsage();
+					System.exit(0);
+				}
+			} else if (OPT_NO_DEDUP.equals(option)) {
+				deduplicate = false;
+			} else if (OPT_LOOKUP.equals(option) && argIdx < args.length) {
+				lookupSource = args[argIdx++];
+			} else if (OPT_FOLDED.equals(option)) {
+				foldedIndex = true;
+			} else if (OPT_FULL_TEXT.equals(option)) {
+				fullTextIndex = true;
+			} else if (OPT_LARGE.equals(option)) {
+				largeFile = true;
+			} else if (OPT_FRONT_CODE.equals(option) && argIdx < args.length) {
+				wordListRestartInterval = Integer.parseInt(args[argIdx++]);
+				if (wordListRestartInterval <= 0) {
+					printUsage();
+					System.exit(0);
+				}
+			} else if (OPT_FORMAT.equals(option) && argIdx < args.length) {
+				formatVersion = Integer.parseInt(args[argIdx++]);
+				if (formatVersion != RadixSerializer.NODE_FORMAT_1 && formatVersion != RadixSerializer.NODE_FORMAT_2) {
+					printUsage();
+					System.exit(0);
+				}
+			} else {
+				printUsage();
+				System.exit(0);
+			}
+		}
+		int nProcessors = Runtime.getRuntime().availableProcessors();
+		
+		if (lookupSource != null) {
+			if (argIdx != args.length - 1) {
+				printUsage();
+				System.exit(0);
+			}
+			lookup(args[argIdx], lookupSource);
+			return;
+		}
+		
+		if (batchSource != null) {
+			if (argIdx != args.length) {
+				printUsage();
+				System.exit(0);
+			}
+			BatchConverter batch = new BatchConverter();
+			batch.setJobs(nJobs);
+			batch.setIncremental(incremental);
+			batch.setLocale(locale);
+			batch.setFormatVersion(formatVersion);
+			batch.setRadixClusterSize(radixClusterSize);
+			batch.setArticleBlockSize(articleBlockSize);
+			batch.setDeduplicate(deduplicate);
+			batch.setWordListRestartInterval(wordListRestartInterval);
+			batch.setFoldedIndex(foldedIndex);
+			batch.setFullTextIndex(fullTextIndex);
+			batch.setLargeFile(largeFile);
+			// processors are shared between concurrent conversions
+			batch.setThreads(nThreads > 0 ? nThreads : Math.max(1, nProcessors / nJobs));
+			if (batchMemoryBudget > 0) {
+				batch.setExternalMemoryBudget(batchMemoryBudget / nJobs);
+			} else {
+				batch.setExternalMemoryBudget(externalMemoryBudget);
+			}
+			File outDir = null;
+			if (outputDir != null) {
+				outDir = new File(outputDir);
+				outDir.mkdirs();
+			}
+			List<BatchConverter.Result> results = batch.convert(BatchConverter.collect(new File(batchSource), outDir));
+			if (metricsFileName != null) {
+				Writer out = new OutputStreamWriter(new FileOutputStream(metricsFileName), "UTF-8");
+				try {
+					BatchConverter.writeMetrics(results, out);
+				} finally {
+					out.close();
+				}
+			}
+			if (BatchConverter.printReport(results, System.out) > 0) {
+				System.exit(1);
+			}
+			return;
+		}
+		
+		int nArgs = args.length - argIdx;
+		if (nArgs < 1 || nArgs > 2) {
 			printUsage();
 			System.exit(0);
 		}
 		
-		String inputFileName = args[0];
+		String inputFileName = args[argIdx];
 		String outputFileName;
-		if (args.length >= 2) {
-			outputFileName = args[1];
+		if (nArgs >= 2) {
+			outputFileName = args[argIdx + 1];
 		} else {
-			outputFileName = args[0];
+			outputFileName = inputFileName;
 			int idx = outputFileName.indexOf('.');
 			if (idx > -1) {
 				outputFileName = outputFileName.substring(0, idx);
 			}
 		}
 		
-		if (!outputFileName.endsWith(EXT_PRSPDICT)) {
-			outputFileName += EXT_PRSPDICT;
+		if (!outputFileName.endsWith(Converter.EXT_PRSPDICT)) {
+			outputFileName += Converter.EXT_PRSPDICT;
 		}
 
-		// Write header (zeros)
-		RandomAccessFile outputFile = new RandomAccessFile(outputFileName, "rw");
-		outputFile.setLength(HEADER_SIZE);
-		outputFile.seek(HEADER_SIZE);
-		
-		// Temporary file for quick lookup of words with closest match
-		RandomAccessFile wordListFile = new RandomAccessFile(File.createTempFile("prspDictTemp", EXT_PRSPDICT), "rw");
-
-		// Open input dictionary file
-		IDictionaryParser parser;
-		if (inputFileName.endsWith(XDXFParser.EXTENSION)) {
-			parser = new XDXFParser();
-		} else if (inputFileName.endsWith(StardictParser.EXTENSION)) {
-			parser = new StardictParser();
-		} else {
+		if (Converter.createParser(inputFileName) == null) {
 			System.out.println(String.format("Unknown extension, please provide file with either %s (xdxf) or %s (stardict) extension", XDXFParser.EXTENSION, StardictParser.EXTENSION));
 			System.exit(0);
-			return;
 		}
-		parser.open(inputFileName);
-
-		log.info("Reading articles (might take a while)...");
 		
-		// To solve the problem with duplicate articles, need to read everything into memory first
-		HashMap<String, IDictionaryArticle> articles = new HashMap<String, IDictionaryArticle>(10000);
-		// anonymous block, reading all articles, combining those with clashing keywords
-		{
-			IDictionaryArticle article;
-			while ((article = parser.getNext()) != null) {
-				String keyword = article.getKeyword();
-				IDictionaryArticle existingArticle = articles.get(keyword);
-				
-				if (existingArticle != null) {
-					// Append definition
-					existingArticle.append(article);
-				} else {
-					articles.put(keyword, article);
-				}
+		Converter converter = new Converter();
+		converter.setThreads(nThreads > 0 ? nThreads : nProcessors);
+		converter.setExternalMemoryBudget(externalMemoryBudget);
+		converter.setIncremental(incremental);
+		converter.setLocale(locale);
+		converter.setFormatVersion(formatVersion);
+		converter.setRadixClusterSize(radixClusterSize);
+		converter.setArticleBlockSize(articleBlockSize);
+		converter.setDeduplicate(deduplicate);
+		converter.setWordListRestartInterval(wordListRestartInterval);
+		converter.setFoldedIndex(foldedIndex);
+		converter.setFullTextIndex(fullTextIndex);
+		converter.setLargeFile(largeFile);
+		ConversionMetrics metrics = new ConversionMetrics();
+		converter.convert(inputFileName, outputFileName, metrics);
+		if (metricsFileName != null) {
+			Writer out = new OutputStreamWriter(new FileOutputStream(metricsFileName), "UTF-8");
+			try {
+				out.write(metrics.toJson());
+				out.write("\n");
+			} finally {
+				out.close();
 			}
-			
-			parser.close();
 		}
-		
-		
-		RadixTreeImpl<int[]> tree = new RadixTreeImpl<int[]>();
-		int articlesLen = 0;
-		int wordListLen = 0;
-		long nArticles = 0;
-		
-		for (IDictionaryArticle article : articles.values()) {
-			String keyword = article.getKeyword();
-			if (keyword == null) {
-				// ignore articles without keyword
-				continue;
-			}
-			// translation
-			String translation = article.getTranslation();
-			String shortTranslation = article.getShortTranslation();
-			byte[] content = translation.getBytes(ARTICLE_CHARSET);
-			// keyword + short translation
-			int shortTranslationLen = Math.min(SHORT_TRANSLATION_LEN, shortTranslation.length());
-			// aka word list record
-			shortTranslation = shortTranslation.substring(0, shortTranslationLen);
-			shortTranslation = shortTranslation.replaceAll("\\-", " " );
-			shortTranslation = shortTranslation.replaceAll("[\\s]+", " ");
-			shortTranslation = keyword + '\0' + shortTranslation+ '\0';
-			
-			 
-			byte[] shortContent = shortTranslation.getBytes(ARTICLE_CHARSET);
+	}
+
+	// Batch lookup, results go to stdout, stats to stderr
+	private static void lookup(String prspdict, String queries) throws IOException {
+		PrspdictReader reader = new PrspdictReader(new File(prspdict));
+		try {
+			InputStream in = STDIN.equals(queries) ? System.in : new FileInputStream(queries);
 			try {
-				tree.insert(keyword, new int[] {articlesLen, wordListLen});
-				IOUtils.writeInt(outputFile, content.length);
-				outputFile.write(content);
-				wordListFile.write(shortContent);
-				// 4 bytes is length of the article
-				articlesLen += content.length + 4; 
-				wordListLen += shortContent.length;
-				nArticles++;
-			} catch (DuplicateKeyException e) {
-				log.warn("Duplicate article: " + keyword + " this should never happen, converter is bugged!");
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+				BatchLookup.Stats stats = new BatchLookup(reader).lookup(new InputStreamReader(in, "UTF-8"), out);
+				System.err.println(stats);
+			} finally {
+				in.close();
 			}
+		} finally {
+			reader.close();
 		}
-		parser.close();
-		log.info("Finished reading articles (" + nArticles + ")");
+	}
 
-		//------------------------------- Write header --------------------------------------
-		log.info("Writing header");
-		outputFile.seek(0);
-		// magic
-		outputFile.write("PRSPDICT".getBytes("ASCII"));
-		// header size
-		IOUtils.writeShort(outputFile, HEADER_SIZE - 8 /* magic */);
-		
-		// version
-		outputFile.write(0); // lo
-		outputFile.write(1); // hi
-		
-		// index offset
-		int radixOffset = articlesLen + wordListLen + HEADER_SIZE;
-		int wordListOffset = articlesLen + HEADER_SIZE;
-		IOUtils.writeInt(outputFile, wordListOffset);
-		IOUtils.writeInt(outputFile, radixOffset);
-		
-		// rewind past header + articles
-		outputFile.seek(articlesLen + HEADER_SIZE);
-		
-		// write word list
-		wordListFile.seek(0); 
-		IOUtils.writeRaf(outputFile, wordListFile);
-		
-		// File position must equal radix offset
-		assert(outputFile.getFilePointer() == radixOffset);
-		
-		// Write index
-		log.info("Writing indices (should take even longer than reading articles)");
-		RadixSerializer.getInstance().persistRadix(KEY_CHARSET, radixOffset, HEADER_SIZE, HEADER_SIZE + articlesLen, tree.root, outputFile);
-		outputFile.close();
-		
-		log.info("OK");
+	// language[_country[_variant]], e.g. de or de_AT
+	private static Locale parseLocale(String s) {
+		String[] parts = s.split("[_-]", 3);
+		return new Locale(parts[0], parts.length > 1 ? parts[1] : "", parts.length > 2 ? parts[2] : "");
 	}
 
 	private static void printUsage() throws IOException {
-		Properties props = new Properties();
-		props.load(Main.class.getResourceAsStream("/main.properties"));
 		System.out.println("XDXF to prspdict converter" 
-				+ "\nVersion " + props.getProperty("version", "?.?") 
+				+ "\nVersion " + Converter.getVersion() 
 				+ "\nUsage:\n\t java -jar <jar file> <input xdxf file> [<output file>]"
-				+ "\nUsage:\n\t java -jar <jar file> <input stardict (ifo) file> [<output file>]");
+				+ "\nUsage:\n\t java -jar <jar file> <input stardict (ifo) file> [<output file>]"
+				+ "\nUsage:\n\t java -jar <jar file> " + OPT_BATCH + " <directory or manifest file>"
+				+ "\nUsage:\n\t java -jar <jar file> " + OPT_LOOKUP + " <queries file, " + STDIN + " for stdin> <prspdict file>"
+				+ "\n\t\tlooks up words (one per line, UTF-8), prints \"word TAB article offset\" (-1 if not found) in sorted order,"
+				+ "\n\t\thit rate and queries/sec go to stderr"
+				+ "\nOptions (go before input file):"
+				+ "\n\t" + OPT_EXTERNAL + " <megabytes> - sort articles on disk, keeping roughly given amount of memory (for huge dictionaries)"
+				+ "\n\t" + OPT_THREADS + " <n> - number of threads rendering and encoding articles (defaults to number of processors)"
+				+ "\n\t" + OPT_INCREMENTAL + " - reuse unchanged articles of the existing output file (needs " + IncrementalBuild.EXT_SUMS + " file written by previous"
+				+ "\n\t\t" + OPT_INCREMENTAL + " conversion, doesn't work together with on disk sorting)"
+				+ "\n\t" + OPT_LOCALE + " <language[_COUNTRY]> - collation used to order articles and word list (defaults to language neutral)"
+				+ "\n\t" + OPT_FORMAT + " <1|2> - file format version, 2 has faster radix lookup but isn't supported by PRS+ yet (defaults to 1)"
+				+ "\n\t" + OPT_CLUSTER + " <bytes> - cluster radix nodes into blocks of given size (e.g. 4096), so that lookups read fewer blocks"
+				+ "\n\t" + OPT_COMPRESS + " <bytes> - compress articles in blocks of up to given size (e.g. 16384, at most 65536),"
+				+ "\n\t\tmuch smaller file, but not supported by PRS+ yet"
+				+ "\n\t" + OPT_FRONT_CODE + " <n> - front code word list, keeping whole keyword every n words (e.g. " + FrontCoder.DEFAULT_RESTART_INTERVAL + "),"
+				+ "\n\t\tsmaller word list, but not supported by PRS+ yet"
+				+ "\n\t" + OPT_FOLDED + " - add index of lower case keywords without accents, for case and accent insensitive lookup (ignored by PRS+)"
+				+ "\n\t" + OPT_FULL_TEXT + " - add index of words of articles, for full text search (ignored by PRS+, postings beyond"
+				+ "\n\t\t" + OPT_EXTERNAL + " memory, 64 megabytes by default, are merged on disk)"
+				+ "\n\t" + OPT_LARGE + " - allow articles beyond 2 gigabytes, articles are located through a table of 64 bit offsets"
+				+ "\n\t\t(not supported by PRS+, nor together with " + OPT_COMPRESS + ")"
+				+ "\n\t" + OPT_NO_DEDUP + " - store every article, even if the same article was already stored for another keyword"
+				+ "\n\t" + OPT_METRICS + " <file> - write per phase timings, throughput, heap and section sizes as JSON (array in batch mode)"
+				+ "\n\t\t(CPU time and heap are null when " + OPT_JOBS + " is more than 1, they are process wide)"
+				+ "\n\t" + OPT_BATCH + " <directory or manifest> - convert all dictionaries found in directory (recursively)"
+				+ "\n\t\tor listed in manifest file (one \"input[TAB output]\" per line, # starts a comment)"
+				+ "\n\t" + OPT_JOBS + " <n> - number of dictionaries converted at the same time in batch mode (defaults to 1)"
+				+ "\n\t" + OPT_MEMORY + " <megabytes> - memory for the whole batch, shared by jobs (implies on disk sorting)"
+				+ "\n\t" + OPT_OUT + " <directory> - where to put converted files in batch mode, subdirectories of the batch directory"
+				+ "\n\t\tare recreated in it (defaults to input file directory)");
 	}
-}
\ No newline at end of file
+}
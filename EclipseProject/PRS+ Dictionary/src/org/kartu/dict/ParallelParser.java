@@ -0,0 +1,187 @@
+package org.kartu.dict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+import org.kartu.OrderedPipeline;
+
+/**
+ * Wraps serial parser: parser runs on its own thread, articles are rendered by a pool of workers
+ * and are returned in the same order wrapped parser has produced them.
+ *
+ * Articles of {@link ISplittableParser} are split into small ranges (recursively, halving them),
+ * workers read and render whole ranges, so that parsing itself is done in parallel too.
+ *
+ * @author kartu
+ *
+ * @see OrderedPipeline
+ */
+public class ParallelParser implements IDictionaryParser {
+	// Articles in flight per worker thread
+	private static final int ARTICLES_PER_THREAD = 256;
+	// Split ranges are about this big
+	private static final int ARTICLES_PER_RANGE = 256;
+	// Ranges in flight per worker thread
+	private static final int RANGES_PER_THREAD = 2;
+
+	private static final OrderedPipeline.Stage<IDictionaryArticle, IDictionaryArticle> RENDER =
+			new OrderedPipeline.Stage<IDictionaryArticle, IDictionaryArticle>() {
+		@Override
+		public IDictionaryArticle process(IDictionaryArticle article) {
+			// getters render deferred translations
+			article.getTranslation();
+			article.getShortTranslation();
+			return article;
+		}
+	};
+
+	private static final OrderedPipeline.Stage<IArticleRange, List<IDictionaryArticle>> READ_RANGE =
+			new OrderedPipeline.Stage<IArticleRange, List<IDictionaryArticle>>() {
+		@Override
+		public List<IDictionaryArticle> process(IArticleRange range) throws Exception {
+			List<IDictionaryArticle> result = new ArrayList<IDictionaryArticle>((int) range.estimateSize());
+			IDictionaryArticle article;
+			while ((article = range.next()) != null) {
+				result.add(RENDER.process(article));
+			}
+			return result;
+		}
+	};
+
+	private final IDictionaryParser parser;
+	private final int nThreads;
+	private OrderedPipeline<IDictionaryArticle, IDictionaryArticle> pipeline;
+	// splittable parser only
+	private OrderedPipeline<IArticleRange, List<IDictionaryArticle>> rangePipeline;
+	private List<IDictionaryArticle> range;
+	private int rangeIdx;
+
+	public ParallelParser(IDictionaryParser parser, int nThreads) {
+		this.parser = parser;
+		this.nThreads = nThreads;
+	}
+
+	@Override
+	public void open(String path) throws IOException, DictionaryParserException {
+		parser.open(path);
+		if (parser instanceof ISplittableParser) {
+			List<IArticleRange> ranges = new ArrayList<IArticleRange>();
+			split(((ISplittableParser) parser).split(), ranges);
+			rangePipeline = new OrderedPipeline<IArticleRange, List<IDictionaryArticle>>("parser", ranges.iterator(),
+					READ_RANGE, nThreads, nThreads * RANGES_PER_THREAD);
+		} else {
+			pipeline = new OrderedPipeline<IDictionaryArticle, IDictionaryArticle>("parser", new ParserIterator(),
+					RENDER, nThreads, nThreads * ARTICLES_PER_THREAD);
+		}
+	}
+
+	/**
+	 * Splits range until its parts are small enough, adds them to the list in order
+	 */
+	private static void split(IArticleRange range, List<IArticleRange> ranges) {
+		IArticleRange prefix;
+		while (range.estimateSize() > ARTICLES_PER_RANGE && (prefix = range.trySplit()) != null) {
+			split(prefix, ranges);
+		}
+		ranges.add(range);
+	}
+
+	@Override
+	public IDictionaryArticle getNext() throws DictionaryParserException {
+		try {
+			if (rangePipeline != null) {
+				while (range == null || rangeIdx == range.size()) {
+					range = rangePipeline.take();
+					rangeIdx = 0;
+					if (range == null) {
+						return null;
+					}
+				}
+				return range.get(rangeIdx++);
+			}
+			return pipeline.take();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ParserFailure) {
+				throw (DictionaryParserException) cause.getCause();
+			}
+			if (cause instanceof DictionaryParserException) {
+				throw (DictionaryParserException) cause;
+			}
+			throw new DictionaryParserException(cause);
+		} catch (InterruptedException e) {
+			throw new DictionaryParserException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (pipeline != null) {
+			try {
+				pipeline.close();
+			} catch (InterruptedException ignore) {
+			}
+			pipeline = null;
+		}
+		if (rangePipeline != null) {
+			try {
+				rangePipeline.close();
+			} catch (InterruptedException ignore) {
+			}
+			rangePipeline = null;
+			range = null;
+		}
+		parser.close();
+	}
+
+	/**
+	 * Carries parser exception through the pipeline
+	 */
+	private static class ParserFailure extends RuntimeException {
+		private static final long serialVersionUID = -2405129957460447425L;
+
+		ParserFailure(DictionaryParserException e) {
+			super(e);
+		}
+	}
+
+	/**
+	 * Adapts {@link IDictionaryParser#getNext()} to iterator, used by pipeline's feeder thread
+	 */
+	private class ParserIterator implements Iterator<IDictionaryArticle> {
+		private IDictionaryArticle next;
+		private boolean done;
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = parser.getNext();
+				} catch (DictionaryParserException e) {
+					throw new ParserFailure(e);
+				}
+				done = next == null;
+			}
+			return next != null;
+		}
+
+		@Override
+		public IDictionaryArticle next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IDictionaryArticle result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
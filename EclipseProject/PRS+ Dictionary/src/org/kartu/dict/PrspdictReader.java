@@ -0,0 +1,964 @@
+package org.kartu.dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import ds.tree.FuzzyMatch;
+import ds.tree.LevenshteinAutomaton;
+
+/**
+ * Reader of prspdict files, looks words up the way PRS+ does: exact match, best (nearest) match,
+ * words starting with prefix, word list paging and articles. Used to check the converter's output
+ * and for lookups on the server side.
+ *
+ * File is mapped into memory and nodes are parsed in place, lookups allocate nothing but their results.
+ * Version 1.0 nodes are searched by scanning children names,
+ * version 2.0 nodes by binary search in the child table (see {@link RadixSerializer}).
+ * Compressed articles (minor version 1) are read by inflating the block the article is in, up to the end
+ * of the article, the last block is kept, so that its further articles are inflated only as needed
+ * (see {@link ArticleBlockWriter}).
+ * Front coded word list (minor version flag 2) is decoded starting at the nearest restart point
+ * (see {@link FrontCoder}).
+ * Folded index, if present, is searched for the folded word the same way as the radix (see {@link KeyNormalizer}).
+ * Full text index, if present, is searched by binary search in its term table, posting lists of the query terms
+ * are intersected starting with the shortest one (see {@link FullTextIndexWriter}).
+ * Large file (minor version flag 4) has only its index mapped, articles are read from the file at offsets
+ * found in the article table (see {@link Converter}).
+ *
+ * Not thread safe (articles share the inflater).
+ *
+ * @author kartu
+ */
+public class PrspdictReader {
+	private static final byte[] MAGIC = {'P', 'R', 'S', 'P', 'D', 'I', 'C', 'T'};
+	// header size, version lo, version hi
+	private static final int VERSION_LO_OFFSET = 8 + 2;
+	private static final int VERSION_HI_OFFSET = 8 + 2 + 1;
+	private static final int WORD_LIST_OFFSET = 8 + 2 + 1 + 1;
+	private static final int RADIX_OFFSET = WORD_LIST_OFFSET + 4;
+	private static final int BLOCK_TABLE_OFFSET = RADIX_OFFSET + 4;
+	private static final int BLOCK_COUNT_OFFSET = BLOCK_TABLE_OFFSET + 4;
+	private static final int RESTART_TABLE_OFFSET = BLOCK_COUNT_OFFSET + 4;
+	private static final int RESTART_COUNT_OFFSET = RESTART_TABLE_OFFSET + 4;
+	private static final int FOLDED_RADIX_OFFSET = RESTART_COUNT_OFFSET + 4 + 4;
+	private static final int FULL_TEXT_OFFSET = FOLDED_RADIX_OFFSET + 4;
+	private static final int FULL_TEXT_TERM_COUNT_OFFSET = FULL_TEXT_OFFSET + 4;
+	private static final int INDEX_BASE_OFFSET = FULL_TEXT_TERM_COUNT_OFFSET + 4;
+	private static final int ARTICLE_TABLE_OFFSET = INDEX_BASE_OFFSET + 8;
+	private static final int ARTICLE_COUNT_OFFSET = ARTICLE_TABLE_OFFSET + 4;
+	// block offset, uncompressed size
+	private static final int BLOCK_TABLE_ENTRY_SIZE = 4 + 4;
+	// length, article offset, word list offset, number of children
+	private static final int NODE_HEADER_SIZE_1 = 2 + 4 + 4 + 1;
+	private static final int NODE_HEADER_SIZE_2 = 4 + 4 + 4 + 2;
+	private static final int CHILD_TABLE_ENTRY_SIZE = 2 + 2 + 4;
+
+	private final RandomAccessFile file;
+	// index of large file, the whole file otherwise
+	private final ByteBuffer buffer;
+	private final int version;
+	private final int wordListOffset;
+	private final int radixOffset;
+	private final boolean compressed;
+	private final int blockTableOffset;
+	private final int nBlocks;
+	private final boolean frontCoded;
+	private final int restartTableOffset;
+	private final int nRestarts;
+	// 0 if there is no folded index
+	private final int foldedRadixOffset;
+	// term table of the full text index, 0 if there is none
+	private final int fullTextOffset;
+	private final int nFullTextTerms;
+	private final boolean largeFile;
+	// large file only
+	private final int articleTableOffset;
+	private final int nStoredArticles;
+	private final Inflater inflater = new Inflater();
+	// last inflated block, 1 based block number, 0 if none
+	private int blockNumber;
+	private byte[] block;
+	// number of bytes of the block inflated so far
+	private int blockInflated;
+
+	public PrspdictReader(File prspdict) throws IOException {
+		file = new RandomAccessFile(prspdict, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(file.length(), Converter.HEADER_SIZE))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (header.limit() < Converter.HEADER_SIZE || header.get(i) != MAGIC[i]) {
+					throw new IOException(prspdict + " is not a prspdict file");
+				}
+			}
+			version = header.get(VERSION_HI_OFFSET) & 0xff;
+			if (version != RadixSerializer.NODE_FORMAT_1 && version != RadixSerializer.NODE_FORMAT_2) {
+				throw new IOException("Unsupported version of " + prspdict + ": " + version);
+			}
+			int flags = header.get(VERSION_LO_OFFSET);
+			compressed = (flags & Converter.VERSION_LO_COMPRESSED) != 0;
+			frontCoded = (flags & Converter.VERSION_LO_FRONT_CODED) != 0;
+			largeFile = (flags & Converter.VERSION_LO_LARGE_FILE) != 0;
+			wordListOffset = header.getInt(WORD_LIST_OFFSET);
+			radixOffset = header.getInt(RADIX_OFFSET);
+			blockTableOffset = compressed ? header.getInt(BLOCK_TABLE_OFFSET) : 0;
+			nBlocks = compressed ? header.getInt(BLOCK_COUNT_OFFSET) : 0;
+			restartTableOffset = frontCoded ? header.getInt(RESTART_TABLE_OFFSET) : 0;
+			nRestarts = frontCoded ? header.getInt(RESTART_COUNT_OFFSET) : 0;
+			foldedRadixOffset = header.getInt(FOLDED_RADIX_OFFSET);
+			fullTextOffset = header.getInt(FULL_TEXT_OFFSET);
+			nFullTextTerms = fullTextOffset != 0 ? header.getInt(FULL_TEXT_TERM_COUNT_OFFSET) : 0;
+			long indexBase = largeFile ? header.getLong(INDEX_BASE_OFFSET) : 0;
+			articleTableOffset = largeFile ? header.getInt(ARTICLE_TABLE_OFFSET) : 0;
+			nStoredArticles = largeFile ? header.getInt(ARTICLE_COUNT_OFFSET) : 0;
+			// offsets are 32 bit, mapping can't be bigger than 2GB
+			if (indexBase < 0 || indexBase > file.length() || file.length() - indexBase > Integer.MAX_VALUE) {
+				throw new IOException("Cannot map " + prspdict + ": " + (file.length() - indexBase) + " bytes from " + indexBase);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexBase, file.length() - indexBase).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true if articles are compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return major version of the file (radix node format)
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	public int getWordListOffset() {
+		return wordListOffset;
+	}
+
+	public int getRadixOffset() {
+		return radixOffset;
+	}
+
+	/**
+	 * @return true if articles are located by article table (and referred to by number)
+	 */
+	public boolean isLargeFile() {
+		return largeFile;
+	}
+
+	/**
+	 * @return true if word list is front coded
+	 */
+	public boolean isFrontCoded() {
+		return frontCoded;
+	}
+
+	/**
+	 * @return true if file has folded (case and accent insensitive) index
+	 */
+	public boolean hasFoldedIndex() {
+		return foldedRadixOffset != 0;
+	}
+
+	/**
+	 * @return true if file has full text index of article bodies
+	 */
+	public boolean hasFullTextIndex() {
+		return fullTextOffset != 0;
+	}
+
+	/**
+	 * Single word list record
+	 */
+	public static class WordListEntry {
+		public final String keyword;
+		public final String shortTranslation;
+		// offset of the record
+		public final int offset;
+
+		WordListEntry(String keyword, String shortTranslation, int offset) {
+			this.keyword = keyword;
+			this.shortTranslation = shortTranslation;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Finds article of the exact (case sensitive) match of the word
+	 *
+	 * @return offset of the article, -1 if there is no such word
+	 */
+	public int find(String word) {
+		int node = findNode(radixOffset, word);
+		int article = node < 0 ? 0 : getArticleOffset(node);
+		return article == 0 ? -1 : article;
+	}
+
+	/**
+	 * Finds word list record of the exact (case sensitive) match of the word
+	 *
+	 * @return offset of the record, to be passed to {@link #getWords(int, int)}, -1 if there is no such word
+	 */
+	public int findWordListOffset(String word) {
+		int node = findNode(radixOffset, word);
+		int record = node < 0 ? 0 : getWordListOffset(node);
+		return record == 0 ? -1 : record;
+	}
+
+	/**
+	 * Finds the word the way PRS+ does when there is no exact match: follows the word as far as radix allows,
+	 * then takes the first word below
+	 *
+	 * @return offset of the word list record of the nearest word, to be passed to {@link #getWords(int, int)},
+	 * 		-1 if dictionary is empty
+	 */
+	public int findBestMatch(String word) {
+		int node = radixOffset;
+		int matched = 0;
+		boolean descended = true;
+		while (descended && matched < word.length()) {
+			descended = false;
+			int name = getFirstName(node);
+			for (int i = 0, n = getChildCount(node); i < n; i++) {
+				int nameLength = matchName(name, word, matched);
+				if (nameLength > 0) {
+					matched += nameLength;
+					node = getChildOffset(node, i);
+					descended = true;
+					break;
+				}
+				name = skipName(name);
+			}
+		}
+		// nodes without article have children
+		while (getArticleOffset(node) == 0) {
+			if (getChildCount(node) == 0) {
+				return -1;
+			}
+			node = getChildOffset(node, 0);
+		}
+		return getWordListOffset(node);
+	}
+
+	/**
+	 * Lists words starting with the prefix, in radix order (depth first, children in the order they are stored),
+	 * which only approximates collation order
+	 *
+	 * @param limit maximum number of words to list
+	 */
+	public List<WordListEntry> findPrefix(String prefix, int limit) {
+		List<WordListEntry> result = new ArrayList<WordListEntry>();
+		// descend to the node the prefix ends in
+		int node = radixOffset;
+		StringBuilder keyword = new StringBuilder(prefix);
+		int matched = 0;
+		while (matched < prefix.length()) {
+			int name = getFirstName(node);
+			int n = getChildCount(node);
+			int i = 0;
+			while (i < n && buffer.getChar(name) != prefix.charAt(matched)) {
+				name = skipName(name);
+				i++;
+			}
+			if (i == n) {
+				return result;
+			}
+			// prefix might end in the middle of the name
+			char c;
+			while ((c = buffer.getChar(name)) != 0) {
+				if (matched < prefix.length()) {
+					if (prefix.charAt(matched) != c) {
+						return result;
+					}
+					matched++;
+				} else {
+					keyword.append(c);
+				}
+				name += 2;
+			}
+			node = getChildOffset(node, i);
+		}
+
+		// pre-order walk of the subtree: (node, its name, length of the parent's keyword) triples
+		int[] stack = new int[3 * 16];
+		int top = 0;
+		stack[top++] = node;
+		stack[top++] = 0;
+		stack[top++] = keyword.length();
+		while (top > 0 && result.size() < limit) {
+			int parentLength = stack[--top];
+			int name = stack[--top];
+			node = stack[--top];
+			keyword.setLength(parentLength);
+			if (name != 0) {
+				for (char c; (c = buffer.getChar(name)) != 0; name += 2) {
+					keyword.append(c);
+				}
+			}
+			int record = getWordListOffset(node);
+			if (getArticleOffset(node) != 0) {
+				result.add(new WordListEntry(keyword.toString(), readShortTranslation(record), record));
+			}
+			int n = getChildCount(node);
+			if (stack.length < top + 3 * n) {
+				int[] newStack = new int[Math.max(stack.length * 2, top + 3 * n)];
+				System.arraycopy(stack, 0, newStack, 0, top);
+				stack = newStack;
+			}
+			// children go to the stack in reverse, so that the first one is listed first
+			name = getFirstName(node);
+			for (int i = 0; i < n; i++) {
+				int entry = top + 3 * (n - 1 - i);
+				stack[entry] = getChildOffset(node, i);
+				stack[entry + 1] = name;
+				stack[entry + 2] = keyword.length();
+				name = skipName(name);
+			}
+			top += 3 * n;
+		}
+		return result;
+	}
+
+	/**
+	 * Finds words within the given edit (Levenshtein) distance of the word, walking the radix along with
+	 * {@link LevenshteinAutomaton}, subtrees no word of which can be close enough are skipped
+	 *
+	 * @param maxDistance maximum number of inserted, deleted or replaced chars, e.g. 1 or 2
+	 * @param limit maximum number of matches
+	 * @return up to limit closest matches, values are word list offsets (see {@link #getWords(int, int)}), ordered
+	 * 		by distance, matches of the same distance in radix order (see {@link #findPrefix(String, int)})
+	 */
+	public List<FuzzyMatch<Integer>> findFuzzy(String word, int maxDistance, int limit) {
+		List<FuzzyMatch<Integer>> matches = new ArrayList<FuzzyMatch<Integer>>();
+		LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, maxDistance);
+		StringBuilder keyword = new StringBuilder();
+		// chars that can follow when no edits are left, children (indices and names) found for them
+		char[] nextChars = new char[2 * maxDistance + 1];
+		int[] found = new int[nextChars.length];
+		int[] foundNames = new int[nextChars.length];
+		// (node, its name, length of the parent's keyword) triples
+		int[] stack = new int[3 * 16];
+		int top = 0;
+		stack[top++] = radixOffset;
+		stack[top++] = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int depth = stack[--top];
+			int name = stack[--top];
+			int node = stack[--top];
+			keyword.setLength(depth);
+			boolean reachable = true;
+			if (name != 0) {
+				for (char c; reachable && (c = buffer.getChar(name)) != 0; name += 2) {
+					reachable = automaton.step(depth++, c);
+					keyword.append(c);
+				}
+			}
+			if (!reachable) {
+				continue;
+			}
+			if (getArticleOffset(node) != 0 && automaton.isMatch(depth)) {
+				matches.add(new FuzzyMatch<Integer>(keyword.toString(), getWordListOffset(node), automaton.getDistance(depth)));
+			}
+			int n = getChildCount(node);
+			if (stack.length < top + 3 * n) {
+				int[] newStack = new int[Math.max(stack.length * 2, top + 3 * n)];
+				System.arraycopy(stack, 0, newStack, 0, top);
+				stack = newStack;
+			}
+			int nChars = version == RadixSerializer.NODE_FORMAT_2 ? automaton.getNextChars(depth, nextChars) : -1;
+			if (nChars >= 0) {
+				// no edits left, children are looked up in the child table, the rest are skipped without reading their names
+				int nFound = 0;
+				for (int i = 0; i < nChars; i++) {
+					int entry = findEntry(node, nextChars[i]);
+					if (entry >= 0) {
+						// keep children order
+						int index = buffer.getShort(entry + 2) & 0xffff;
+						int j = nFound++;
+						for (; j > 0 && found[j - 1] > index; j--) {
+							found[j] = found[j - 1];
+							foundNames[j] = foundNames[j - 1];
+						}
+						found[j] = index;
+						foundNames[j] = node + buffer.getInt(entry + 4);
+					}
+				}
+				for (int i = nFound - 1; i >= 0; i--) {
+					stack[top++] = getChildOffset(node, found[i]);
+					stack[top++] = foundNames[i];
+					stack[top++] = depth;
+				}
+				continue;
+			}
+			// children go to the stack in reverse, so that the first one is visited first
+			name = getFirstName(node);
+			int nAccepted = 0;
+			for (int i = 0; i < n; i++) {
+				if (automaton.accepts(depth, buffer.getChar(name))) {
+					nAccepted++;
+				}
+				name = skipName(name);
+			}
+			name = getFirstName(node);
+			for (int i = 0, entry = top + 3 * nAccepted; i < n; i++) {
+				if (automaton.accepts(depth, buffer.getChar(name))) {
+					entry -= 3;
+					stack[entry] = getChildOffset(node, i);
+					stack[entry + 1] = name;
+					stack[entry + 2] = depth;
+				}
+				name = skipName(name);
+			}
+			top += 3 * nAccepted;
+		}
+		return FuzzyMatch.closest(matches, limit);
+	}
+
+	/**
+	 * Finds articles of all keywords matching the word ignoring case and accents, using folded index
+	 *
+	 * @return offsets of the articles, in collation order of their keywords, empty if there is no such word
+	 * @throws IOException if file has no folded index
+	 */
+	public int[] findFolded(String word) throws IOException {
+		if (foldedRadixOffset == 0) {
+			throw new IOException("File has no folded index");
+		}
+		int node = findNode(foldedRadixOffset, KeyNormalizer.normalize(word));
+		int entry = node < 0 ? 0 : getArticleOffset(node);
+		if (entry == 0) {
+			return new int[0];
+		}
+		// number of keywords, (article offset, word list offset) of each
+		int[] result = new int[buffer.getShort(entry) & 0xffff];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buffer.getInt(entry + 2 + i * 8);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds articles containing all terms of the query, query is split into terms (and folded) the same way
+	 * article bodies are
+	 *
+	 * @return offsets of the articles (see {@link #getArticle(int)}), in file order, empty if query has no terms
+	 * @throws IOException if file has no full text index
+	 */
+	public int[] findFullText(String query) throws IOException {
+		if (fullTextOffset == 0) {
+			throw new IOException("File has no full text index");
+		}
+		String[] terms = FullTextIndexWriter.tokenize(query);
+		int[] lists = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			lists[i] = findPostings(terms[i]);
+			if (lists[i] < 0) {
+				return new int[0];
+			}
+		}
+		if (lists.length == 0) {
+			return new int[0];
+		}
+		// the shortest list first, the result can only shrink
+		int[] counts = new int[lists.length];
+		int shortest = 0;
+		for (int i = 0; i < lists.length; i++) {
+			counts[i] = (int) readVarint(lists[i]);
+			if (counts[i] < counts[shortest]) {
+				shortest = i;
+			}
+		}
+		int[] result = readPostings(lists[shortest]);
+		int n = result.length;
+		for (int i = 0; i < lists.length && n > 0; i++) {
+			if (i != shortest) {
+				n = intersect(result, n, lists[i]);
+			}
+		}
+		int[] trimmed = new int[n];
+		System.arraycopy(result, 0, trimmed, 0, n);
+		return trimmed;
+	}
+
+	/**
+	 * Reads page of the word list. Front coded records are decoded from the nearest restart point
+	 * preceding the offset.
+	 *
+	 * @param offset offset of the first record, as returned by {@link #findWordListOffset(String)}
+	 * @return up to count records, fewer at the end of the word list
+	 */
+	public List<WordListEntry> getWords(int offset, int count) throws IOException {
+		// plain records end at the radix, front coded ones at the restart table
+		int end = frontCoded ? restartTableOffset : radixOffset;
+		if (offset < wordListOffset || offset > end) {
+			throw new IOException("Invalid word list offset: " + offset);
+		}
+		List<WordListEntry> result = new ArrayList<WordListEntry>();
+		byte[] keyword = new byte[256];
+		int keywordLength = 0;
+		int position = frontCoded ? findRestart(offset) : offset;
+		while (position < end && result.size() < count) {
+			int start = position;
+			int prefix = 0;
+			if (frontCoded) {
+				prefix = buffer.get(position++) & 0xff;
+				if (prefix > keywordLength) {
+					throw new IOException("Invalid front coded record at " + start);
+				}
+			}
+			int rest = indexOfZero(position, end) - position;
+			keywordLength = prefix + rest;
+			if (keyword.length < keywordLength) {
+				byte[] newKeyword = new byte[keywordLength * 2];
+				System.arraycopy(keyword, 0, newKeyword, 0, prefix);
+				keyword = newKeyword;
+			}
+			ByteBuffer record = buffer.duplicate();
+			record.position(position);
+			record.get(keyword, prefix, rest);
+			position += rest + 1;
+			int shortEnd = indexOfZero(position, end);
+			if (start >= offset) {
+				byte[] shortTranslation = new byte[shortEnd - position];
+				record.position(position);
+				record.get(shortTranslation);
+				result.add(new WordListEntry(new String(keyword, 0, keywordLength, Converter.ARTICLE_CHARSET),
+						new String(shortTranslation, Converter.ARTICLE_CHARSET), start));
+			}
+			position = shortEnd + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads page of the word list preceding the record at the given offset
+	 *
+	 * @return up to count records right before the offset, fewer at the beginning of the word list
+	 */
+	public List<WordListEntry> getWordsBefore(int offset, int count) throws IOException {
+		if (offset <= wordListOffset || count <= 0) {
+			return new ArrayList<WordListEntry>();
+		}
+		int start;
+		if (frontCoded) {
+			// go back restart by restart, until there are enough records between the restart point and the offset
+			int restart = findRestartIndex(offset - 1);
+			for (;; restart--) {
+				start = buffer.getInt(restartTableOffset + restart * 4);
+				if (restart == 0 || countRecords(start, offset) >= count) {
+					break;
+				}
+			}
+			List<WordListEntry> result = getWords(start, countRecords(start, offset));
+			return result.subList(Math.max(0, result.size() - count), result.size());
+		}
+		// plain records are zero terminated keyword and zero terminated short translation
+		start = offset;
+		int n = 0;
+		while (n < count && start > wordListOffset) {
+			int position = start - 2;
+			for (int zeros = 0; position >= wordListOffset; position--) {
+				if (buffer.get(position) == 0 && ++zeros == 2) {
+					break;
+				}
+			}
+			start = position + 1;
+			n++;
+		}
+		return getWords(start, n);
+	}
+
+	// Node of the exact match of the word in the radix at the given offset, -1 if there is none
+	private int findNode(int root, String word) {
+		int node = root;
+		int matched = 0;
+		while (matched < word.length()) {
+			long child = findChild(node, word, matched);
+			if (child < 0) {
+				return -1;
+			}
+			node = (int) (child >>> 32);
+			matched += (int) child;
+		}
+		return node;
+	}
+
+	/**
+	 * Finds child of the node whose name the word continues with (starting at from)
+	 *
+	 * @return offset of the child in the upper 32 bits, length of its name in the lower 32 bits, -1 if there is no such child
+	 */
+	long findChild(int node, String word, int from) {
+		int index;
+		int name;
+		if (version == RadixSerializer.NODE_FORMAT_2) {
+			int entry = findEntry(node, word.charAt(from));
+			if (entry < 0) {
+				return -1;
+			}
+			index = buffer.getShort(entry + 2) & 0xffff;
+			name = node + buffer.getInt(entry + 4);
+		} else {
+			// names follow child pointers, scan them one by one
+			int nChildren = getChildCount(node);
+			name = getFirstName(node);
+			for (index = 0; index < nChildren && buffer.getChar(name) != word.charAt(from); index++) {
+				name = skipName(name);
+			}
+			if (index == nChildren) {
+				return -1;
+			}
+		}
+		int nameLength = matchName(name, word, from);
+		if (nameLength < 0) {
+			return -1;
+		}
+		return (long) getChildOffset(node, index) << 32 | nameLength;
+	}
+
+	/**
+	 * @param offset offset of the article (pointer, if articles are compressed, number, if file is large),
+	 * 		as returned by {@link #find(String)}
+	 * @return the article
+	 */
+	public String getArticle(int offset) throws IOException {
+		if (largeFile) {
+			return readArticle(offset);
+		}
+		ByteBuffer section = buffer;
+		if (compressed) {
+			int number = offset >>> 16;
+			offset &= 0xffff;
+			section = inflate(number, offset + 4);
+			section = inflate(number, offset + 4 + section.getInt(offset));
+		}
+		int length = section.getInt(offset);
+		byte[] bytes = new byte[length];
+		ByteBuffer article = section.duplicate();
+		article.position(offset + 4);
+		article.get(bytes);
+		return new String(bytes, Converter.ARTICLE_CHARSET);
+	}
+
+	public void close() throws IOException {
+		inflater.end();
+		file.close();
+	}
+
+	/**
+	 * Reads article of large file from outside of the mapped index
+	 *
+	 * @param number 1 based number of the article
+	 */
+	private String readArticle(int number) throws IOException {
+		if (number < 1 || number > nStoredArticles) {
+			throw new IOException("Invalid article number: " + number);
+		}
+		long position = buffer.getLong(articleTableOffset + (number - 1) * Converter.ARTICLE_TABLE_ENTRY_SIZE);
+		ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(length, position);
+		ByteBuffer article = ByteBuffer.allocate(length.getInt(0));
+		readFully(article, position + 4);
+		return new String(article.array(), Converter.ARTICLE_CHARSET);
+	}
+
+	private void readFully(ByteBuffer dst, long position) throws IOException {
+		FileChannel channel = file.getChannel();
+		while (dst.hasRemaining()) {
+			int n = channel.read(dst, position + dst.position());
+			if (n < 0) {
+				throw new IOException("Article at " + position + " is truncated");
+			}
+		}
+	}
+
+	/**
+	 * Inflates block with the given 1 based number at least up to the given length
+	 * 
+	 * @return inflated part of the block
+	 */
+	private ByteBuffer inflate(int number, int length) throws IOException {
+		if (number != blockNumber) {
+			if (number < 1 || number > nBlocks) {
+				throw new IOException("Invalid article block: " + number);
+			}
+			int entry = blockTableOffset + (number - 1) * BLOCK_TABLE_ENTRY_SIZE;
+			int start = buffer.getInt(entry);
+			int end = buffer.getInt(entry + BLOCK_TABLE_ENTRY_SIZE);
+			byte[] input = new byte[end - start];
+			ByteBuffer compressedBlock = buffer.duplicate();
+			compressedBlock.position(start);
+			compressedBlock.get(input);
+			inflater.reset();
+			inflater.setInput(input);
+			block = new byte[buffer.getInt(entry + 4)];
+			blockInflated = 0;
+			blockNumber = number;
+		}
+		if (length > block.length) {
+			throw new IOException("Invalid article offset in block " + number);
+		}
+		try {
+			while (blockInflated < length) {
+				int n = inflater.inflate(block, blockInflated, length - blockInflated);
+				if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+					// don't keep broken block
+					blockNumber = 0;
+					throw new IOException("Article block " + number + " is truncated");
+				}
+				blockInflated += n;
+			}
+		} catch (DataFormatException e) {
+			blockNumber = 0;
+			throw new IOException("Article block " + number + " is corrupt: " + e.getMessage());
+		}
+		return ByteBuffer.wrap(block, 0, blockInflated).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Article offset of the node, 0 if node has no article
+	int getArticleOffset(int node) {
+		return buffer.getInt(node + (version == RadixSerializer.NODE_FORMAT_2 ? 4 : 2));
+	}
+
+	// Word list offset of the node, 0 if node has no article
+	int getWordListOffset(int node) {
+		return buffer.getInt(node + (version == RadixSerializer.NODE_FORMAT_2 ? 4 + 4 : 2 + 4));
+	}
+
+	int getChildCount(int node) {
+		return version == RadixSerializer.NODE_FORMAT_2
+				? buffer.getShort(node + NODE_HEADER_SIZE_2 - 2) & 0xffff
+				: buffer.get(node + NODE_HEADER_SIZE_1 - 1) & 0xff;
+	}
+
+	// Name of the first child, the rest follow in the order of children
+	int getFirstName(int node) {
+		int nChildren = getChildCount(node);
+		return version == RadixSerializer.NODE_FORMAT_2
+				? node + NODE_HEADER_SIZE_2 + nChildren * (4 + CHILD_TABLE_ENTRY_SIZE)
+				: node + NODE_HEADER_SIZE_1 + nChildren * 4;
+	}
+
+	int getChildOffset(int node, int index) {
+		return buffer.getInt(node + (version == RadixSerializer.NODE_FORMAT_2 ? NODE_HEADER_SIZE_2 : NODE_HEADER_SIZE_1) + index * 4);
+	}
+
+	/**
+	 * Binary search of the version 2.0 child table
+	 *
+	 * @return position of the table entry whose first char is c, -1 if there is none
+	 */
+	private int findEntry(int node, char c) {
+		int nChildren = getChildCount(node);
+		int table = node + NODE_HEADER_SIZE_2 + nChildren * 4;
+		int lo = 0;
+		int hi = nChildren - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int entry = table + mid * CHILD_TABLE_ENTRY_SIZE;
+			char midChar = buffer.getChar(entry);
+			if (midChar < c) {
+				lo = mid + 1;
+			} else if (midChar > c) {
+				hi = mid - 1;
+			} else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return length of the zero terminated name at the given position if word continues with it (starting at from), -1 otherwise
+	 */
+	private int matchName(int name, String word, int from) {
+		int i = 0;
+		char c;
+		while ((c = buffer.getChar(name + i * 2)) != 0) {
+			if (from + i >= word.length() || word.charAt(from + i) != c) {
+				return -1;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the last restart point not after the offset
+	 */
+	private int findRestart(int offset) {
+		int index = findRestartIndex(offset);
+		// empty word list
+		return index < 0 ? restartTableOffset : buffer.getInt(restartTableOffset + index * 4);
+	}
+
+	/**
+	 * Binary search of the restart table
+	 *
+	 * @return index of the last restart point not after the offset, -1 if there is none
+	 */
+	private int findRestartIndex(int offset) {
+		int lo = 0;
+		int hi = nRestarts - 1;
+		int result = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buffer.getInt(restartTableOffset + mid * 4) <= offset) {
+				result = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	// Number of front coded records from start up to the end offset
+	private int countRecords(int start, int end) throws IOException {
+		int n = 0;
+		for (int position = start; position < end; n++) {
+			// shared prefix length, rest of the keyword, short translation
+			position = indexOfZero(indexOfZero(position + 1, end) + 1, end) + 1;
+		}
+		return n;
+	}
+
+	// Posting list of the term, -1 if there is no such term
+	private int findPostings(String term) {
+		int lo = 0;
+		int hi = nFullTextTerms - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int entry = fullTextOffset + mid * FullTextIndexWriter.TERM_TABLE_ENTRY_SIZE;
+			int cmp = readTerm(buffer.getInt(entry)).compareTo(term);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return buffer.getInt(entry + 4);
+			}
+		}
+		return -1;
+	}
+
+	// Zero terminated UTF-8 term of the full text index
+	private String readTerm(int position) {
+		int end = position;
+		while (buffer.get(end) != 0) {
+			end++;
+		}
+		byte[] bytes = new byte[end - position];
+		ByteBuffer term = buffer.duplicate();
+		term.position(position);
+		term.get(bytes);
+		return new String(bytes, Converter.ARTICLE_CHARSET);
+	}
+
+	// Decoded articles of the posting list
+	private int[] readPostings(int list) {
+		long varint = readVarint(list);
+		int[] result = new int[(int) varint];
+		int position = (int) (varint >>> 32);
+		int article = 0;
+		for (int i = 0; i < result.length; i++) {
+			varint = readVarint(position);
+			article += (int) varint;
+			position = (int) (varint >>> 32);
+			result[i] = article;
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the first n articles that are also in the posting list, both are in (unsigned) offset order
+	 *
+	 * @return number of articles kept
+	 */
+	private int intersect(int[] articles, int n, int list) {
+		long varint = readVarint(list);
+		int count = (int) varint;
+		int position = (int) (varint >>> 32);
+		int article = 0;
+		int kept = 0;
+		int i = 0;
+		for (int j = 0; j < count && i < n; j++) {
+			varint = readVarint(position);
+			article += (int) varint;
+			position = (int) (varint >>> 32);
+			// skip articles before the posting, unsigned compare
+			while (i < n && articles[i] + Integer.MIN_VALUE < article + Integer.MIN_VALUE) {
+				i++;
+			}
+			if (i < n && articles[i] == article) {
+				articles[kept++] = article;
+				i++;
+			}
+		}
+		return kept;
+	}
+
+	// Unsigned varint (low 32 bits) and position after it (high 32 bits), see FullTextIndexWriter
+	private long readVarint(int position) {
+		int result = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(position++);
+			result |= (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return ((long) position << 32) | (result & 0xffffffffL);
+	}
+
+	// Short translation of the word list record, keyword of the record is skipped
+	private String readShortTranslation(int record) {
+		int position = record + (frontCoded ? 1 : 0);
+		while (buffer.get(position) != 0) {
+			position++;
+		}
+		int start = ++position;
+		while (buffer.get(position) != 0) {
+			position++;
+		}
+		byte[] bytes = new byte[position - start];
+		ByteBuffer shortTranslation = buffer.duplicate();
+		shortTranslation.position(start);
+		shortTranslation.get(bytes);
+		return new String(bytes, Converter.ARTICLE_CHARSET);
+	}
+
+	// Position of the zero byte terminating the string at the given position
+	private int indexOfZero(int position, int end) throws IOException {
+		while (position < end && buffer.get(position) != 0) {
+			position++;
+		}
+		if (position == end) {
+			throw new IOException("Word list record is not zero terminated");
+		}
+		return position;
+	}
+
+	// Position right after the zero terminated name
+	private int skipName(int name) {
+		while (buffer.getChar(name) != 0) {
+			name += 2;
+		}
+		return name + 2;
+	}
+}
@@ -0,0 +1,190 @@
+package org.kartu.dict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Buffered little endian writer of prspdict sections.
+ *
+ * All writes go through a large reusable buffer and end up as positional {@link FileChannel} writes,
+ * so several writers can share the same channel, each filling its own section of the file.
+ *
+ * @author kartu
+ */
+public class PrspdictWriter {
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	// Small buffer for positional writes outside of the main buffer
+	private final ByteBuffer patch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	// File position of the first byte in the buffer
+	private long bufferPosition;
+
+	/**
+	 * @param channel channel to write to
+	 * @param position file position to start writing at
+	 * @param bufferSize size of the write buffer
+	 */
+	public PrspdictWriter(FileChannel channel, long position, int bufferSize) {
+		this.channel = channel;
+		this.bufferPosition = position;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public PrspdictWriter(FileChannel channel, long position) {
+		this(channel, position, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @return file position the next byte will be written to
+	 */
+	public long getPosition() {
+		return bufferPosition + buffer.position();
+	}
+
+	public int writeByte(int n) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte) n);
+		return 1;
+	}
+
+	public int writeShort(int n) throws IOException {
+		ensureRemaining(2);
+		buffer.putShort((short) n);
+		return 2;
+	}
+
+	public int writeInt(int n) throws IOException {
+		ensureRemaining(4);
+		buffer.putInt(n);
+		return 4;
+	}
+
+	public int writeLong(long n) throws IOException {
+		ensureRemaining(8);
+		buffer.putLong(n);
+		return 8;
+	}
+
+	public int write(byte[] buf) throws IOException {
+		return write(buf, 0, buf.length);
+	}
+
+	public int write(byte[] buf, int offset, int len) throws IOException {
+		if (len > buffer.capacity()) {
+			// Doesn't make sense to copy huge arrays, write them directly
+			flush();
+			ByteBuffer src = ByteBuffer.wrap(buf, offset, len);
+			while (src.hasRemaining()) {
+				bufferPosition += channel.write(src, bufferPosition);
+			}
+		} else {
+			ensureRemaining(len);
+			buffer.put(buf, offset, len);
+		}
+		return len;
+	}
+
+	/**
+	 * Encodes string straight into the write buffer
+	 *
+	 * @return number of bytes written
+	 */
+	public int writeString(CharSequence s, CharsetEncoder encoder) throws IOException {
+		long start = getPosition();
+		CharBuffer in = CharBuffer.wrap(s);
+		encoder.reset();
+		encode(encoder.encode(in, buffer, true), encoder, in);
+		CoderResult result;
+		while ((result = encoder.flush(buffer)).isOverflow()) {
+			flush();
+		}
+		throwIfError(result);
+		return (int) (getPosition() - start);
+	}
+
+	/**
+	 * Overwrites short at given (already written) file position, current position is not affected.
+	 */
+	public void writeShortAt(long position, int n) throws IOException {
+		if (isBuffered(position, 2)) {
+			buffer.putShort((int) (position - bufferPosition), (short) n);
+		} else {
+			patch.clear();
+			patch.putShort((short) n);
+			writePatch(position);
+		}
+	}
+
+	/**
+	 * Overwrites int at given (already written) file position, current position is not affected.
+	 */
+	public void writeIntAt(long position, int n) throws IOException {
+		if (isBuffered(position, 4)) {
+			buffer.putInt((int) (position - bufferPosition), n);
+		} else {
+			patch.clear();
+			patch.putInt(n);
+			writePatch(position);
+		}
+	}
+
+	/**
+	 * Flushes the buffer and moves to the given file position.
+	 */
+	public void seek(long position) throws IOException {
+		flush();
+		bufferPosition = position;
+	}
+
+	/**
+	 * Writes buffered bytes to the channel
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bufferPosition += channel.write(buffer, bufferPosition);
+		}
+		buffer.clear();
+	}
+
+	private void encode(CoderResult result, CharsetEncoder encoder, CharBuffer in) throws IOException {
+		while (result.isOverflow()) {
+			flush();
+			result = encoder.encode(in, buffer, true);
+		}
+		throwIfError(result);
+	}
+
+	private void throwIfError(CoderResult result) throws CharacterCodingException {
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+
+	private void ensureRemaining(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+
+	private boolean isBuffered(long position, int len) {
+		return position >= bufferPosition && position + len <= getPosition();
+	}
+
+	private void writePatch(long position) throws IOException {
+		// patched area might be partially buffered
+		flush();
+		patch.flip();
+		while (patch.hasRemaining()) {
+			position += channel.write(patch, position);
+		}
+	}
+}
@@ -1,91 +1,542 @@
 package org.kartu.dict;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-
-import org.kartu.IOUtils;
+import java.util.Map;
+import java.util.TreeMap;
 
 import ds.tree.RadixTreeNode;
 
 /**
  * Class that can create prsp dictionary files from Radix trees
  * 
+ * Node format 1 (file version 1.x):
+ *  	length - size of the structure in bytes (uint16)
+ *  	article offset - (uint32)
+ *  	word list offset - (uint32)
+ *  	number of child nodes - (uint8)
+ *  	offsets of child nodes (uint32 * number of child nodes)
+ *  	zero terminated UTF16 names of child nodes
+ *  
+ * Node format 2 (file version 2.x), children can be found by binary search instead of scanning all names:
+ *  	length - size of the structure in bytes (uint32)
+ *  	article offset - (uint32)
+ *  	word list offset - (uint32)
+ *  	number of child nodes - (uint16)
+ *  	offsets of child nodes (uint32 * number of child nodes)
+ *  	child table sorted by the first UTF16 char of the child's name (unique among siblings), per child:
+ *  		first char (uint16)
+ *  		child index (uint16) - index into child offsets
+ *  		name offset (uint32) - offset of the child's name, relative to the start of the node
+ *  	zero terminated UTF16 names of child nodes
+ *  
+ * Nodes are written either in pre-order or clustered: tree is cut into subtrees that fit into a block
+ * (top levels of a subtree are packed breadth first), each cluster is written contiguously and doesn't
+ * cross block boundary unless it has to (padding with zeros), so that a single block read resolves several
+ * levels of the lookup. Child offsets are absolute, readers don't depend on the order of the nodes.
+ *  
  * @author kartu
  */
 public class RadixSerializer {
+	public static final int NODE_FORMAT_1 = 1;
+	public static final int NODE_FORMAT_2 = 2;
+	// Pre-order layout, see persistRadix
+	public static final int NO_CLUSTERS = 0;
+
 	// UTF16 is used for key encoding, to simplify case/accent insensitive lookup
 	// UTF8 adds var-length complexity
 	// The fact that UTF-16 is formally var-length is ignored.
 	private static final RadixSerializer instance = new RadixSerializer();
-	// End of string marker, 2 zero bytes
-	private static final byte[] EOSTR = new byte[2];
 	
 	public static RadixSerializer getInstance() {
 		return instance;
 	}
 
 	// Persist word list + pointers
-	public final int persistRadix(Charset charset, int offset, int offsetValue1, int offsetValue2, RadixTreeNode<int[]> node, RandomAccessFile out) throws IOException {
+	public final int persistRadix(Charset charset, int offset, int offsetValue1, int offsetValue2, RadixTreeNode<int[]> node, PrspdictWriter out) throws IOException {
+		return persistRadix(NODE_FORMAT_1, charset, offset, offsetValue1, offsetValue2, node, out);
+	}
+
+	/**
+	 * Persists radix in pre-order using given node format
+	 * 
+	 * @return offset right after the radix
+	 */
+	public final int persistRadix(int nodeFormat, Charset charset, int offset, int offsetValue1, int offsetValue2, RadixTreeNode<int[]> node, PrspdictWriter out) throws IOException {
+		return persistRadix(nodeFormat, NO_CLUSTERS, charset, offset, offsetValue1, offsetValue2, node, out, null);
+	}
+
+	/**
+	 * Persists radix using given node format and layout
+	 * 
+	 * @param clusterSize block size nodes are clustered for, {@link #NO_CLUSTERS} for pre-order
+	 * @param stats if not null, receives number of blocks lookups would read
+	 * @return offset right after the radix
+	 */
+	public final int persistRadix(int nodeFormat, int clusterSize, Charset charset, int offset, int offsetValue1, int offsetValue2,
+			RadixTreeNode<int[]> node, PrspdictWriter out, BlockStats stats) throws IOException {
+		if (nodeFormat != NODE_FORMAT_1 && nodeFormat != NODE_FORMAT_2) {
+			throw new IllegalArgumentException("Unknown node format: " + nodeFormat);
+		}
+		// Sizes and positions are known before anything is written, so radix is written strictly sequentially.
+		// Neither pass is recursive, tree depth is limited only by heap.
+		Layout layout = new Layout(nodeFormat, charset, node);
+		if (clusterSize > 0) {
+			layout.placeClustered(offset, clusterSize);
+		} else {
+			layout.placePreOrder(offset);
+		}
+		layout.checkOffsets(offset);
+		if (stats != null) {
+			layout.countBlocks(stats);
+		}
+		
+		CharsetEncoder encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		for (int i : layout.order) {
+			int position = layout.positions[i];
+			if (position > offset) {
+				// cluster padding
+				out.write(new byte[position - offset]);
+				offset = position;
+			}
+			if (nodeFormat == NODE_FORMAT_2) {
+				offset += persistNode2(layout, encoder, i, offsetValue1, offsetValue2, out);
+			} else {
+				offset += persistNode(layout, encoder, i, offsetValue1, offsetValue2, out);
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Number of distinct blocks read by lookups of all words, assuming that only the nodes on the path
+	 * to the word are read.
+	 */
+	public static class BlockStats {
+		private final int blockSize;
+		private long nLookups;
+		private long nBlocks;
+		private int maxBlocks;
+
+		public BlockStats(int blockSize) {
+			this.blockSize = blockSize;
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		public long getLookupCount() {
+			return nLookups;
+		}
+
+		public double getAverageBlocks() {
+			return nLookups == 0 ? 0 : (double) nBlocks / nLookups;
+		}
+
+		public int getMaxBlocks() {
+			return maxBlocks;
+		}
+
+		void addLookup(int blocks) {
+			nLookups++;
+			nBlocks += blocks;
+			maxBlocks = Math.max(maxBlocks, blocks);
+		}
+	}
+
+	/**
+	 * Writes single node in format 1
+	 * 
+	 * @return size of the node
+	 */
+	private int persistNode(Layout layout, CharsetEncoder encoder, int index, int offsetValue1, int offsetValue2, PrspdictWriter out) throws IOException {
 		// size of the block (short)
 		// value (VALUE_SIZE), 0 if not real
 		// num of children (byte) FIXME for Chinese might need to change to short
 		// *children
 		// children names
 		
-		int initialOffset = offset;
-		int size = 0;
+		RadixTreeNode<int[]> node = layout.nodes.get(index);
+		int size = layout.sizes[index];
 		
 		// size of the block (short)
-		size += IOUtils.writeShort(out, 0);
+		out.writeShort(size);
 		
 		// value
-		size += IOUtils.writeInt(out, node.real ? node.value[0] + offsetValue1 : 0);
-		size += IOUtils.writeInt(out, node.real ? node.value[1] + offsetValue2 : 0);
+		out.writeInt(node.real ? node.value[0] + offsetValue1 : 0);
+		out.writeInt(node.real ? node.value[1] + offsetValue2 : 0);
 
 		// num of children
-		int nChildren = node.childern.size();
-		out.write(nChildren);
-		size += 1;
+		out.writeByte(node.childern.size());
 		
 		// children pointers
-		int childrenPOffset = offset + size;
-		for (int i = 0; i < nChildren; i++) {
-			// fill with zeros
-			size += IOUtils.writeInt(out, 0);
+		int childIndex = index + 1;
+		for (int i = 0, n = node.childern.size(); i < n; i++) {
+			out.writeInt(layout.positions[childIndex]);
+			childIndex += layout.subtreeNodes[childIndex];
 		}
 
 		// children names (heading length)
 		for (RadixTreeNode<int[]> child : node.childern) {
-			byte[] buf = child.key.getBytes(charset);
-			out.write(buf);
-			out.write(EOSTR);
-			size += buf.length + EOSTR.length;
+			out.writeString(child.key, encoder);
+			// end of string marker, 2 zero bytes
+			out.writeShort(0);
 		}
 		
-		// fill children pointers
-		offset += size;
-		List<Integer> childrenOffsets = new ArrayList<Integer>(node.childern.size());
-		for (RadixTreeNode<int[]> child : node.childern) {
-			childrenOffsets.add(offset);
-			offset = persistRadix(charset, offset, offsetValue1, offsetValue2, child, out);
+		return size;
+	}
+	
+	/**
+	 * Writes single node in format 2
+	 * 
+	 * @return size of the node
+	 */
+	private int persistNode2(Layout layout, CharsetEncoder encoder, int index, int offsetValue1, int offsetValue2, PrspdictWriter out) throws IOException {
+		RadixTreeNode<int[]> node = layout.nodes.get(index);
+		List<RadixTreeNode<int[]>> children = node.childern;
+		int nChildren = children.size();
+		int size = layout.sizes[index];
+		
+		out.writeInt(size);
+		out.writeInt(node.real ? node.value[0] + offsetValue1 : 0);
+		out.writeInt(node.real ? node.value[1] + offsetValue2 : 0);
+		out.writeShort(nChildren);
+		
+		// children pointers, the same as in format 1
+		int childIndex = index + 1;
+		for (int i = 0; i < nChildren; i++) {
+			out.writeInt(layout.positions[childIndex]);
+			childIndex += layout.subtreeNodes[childIndex];
 		}
 		
-		// Write size of the block
-		out.seek(initialOffset);
-		IOUtils.writeShort(out, size);
+		// child table, sorted by the first char
+		int[] nameOffsets = new int[nChildren];
+		int nameOffset = Layout.NODE_HEADER_SIZE_2 + nChildren * (Layout.CHILD_POINTER_SIZE + Layout.CHILD_TABLE_ENTRY_SIZE);
+		for (int i = 0; i < nChildren; i++) {
+			nameOffsets[i] = nameOffset;
+			nameOffset += layout.keySize(children.get(i).key) + Layout.EOSTR_SIZE;
+		}
+		for (int i : sortByFirstChar(children)) {
+			out.writeShort(children.get(i).key.charAt(0));
+			out.writeShort(i);
+			out.writeInt(nameOffsets[i]);
+		}
 		
-		// Write children pointers
-		out.seek(childrenPOffset);
-		for (int off : childrenOffsets) {
-			IOUtils.writeInt(out, off);
+		// children names
+		for (RadixTreeNode<int[]> child : children) {
+			out.writeString(child.key, encoder);
+			out.writeShort(0);
 		}
 		
-		// Set file pointer back (offset contains pointer to the next element)
-		out.seek(offset);
+		return size;
+	}
+	
+	// Indices of children ordered by the first char of their names
+	private static int[] sortByFirstChar(List<RadixTreeNode<int[]>> children) {
+		int n = children.size();
+		// first char (high 16 bits) + index (low 16 bits), sign bit is flipped, so that signed sort
+		// orders chars from U+8000 on after the others, as unsigned char compares of the reader do
+		int[] packed = new int[n];
+		for (int i = 0; i < n; i++) {
+			packed[i] = ((children.get(i).key.charAt(0) << 16) | i) ^ Integer.MIN_VALUE;
+		}
+		Arrays.sort(packed);
+		for (int i = 0; i < n; i++) {
+			packed[i] &= 0xffff;
+		}
+		return packed;
+	}
+	
+	/**
+	 * Nodes of the tree in pre-order, their encoded sizes and positions, indexed by pre-order number of the node.
+	 */
+	private static class Layout {
+		// Size of the node without children names and pointers
+		private static final int NODE_HEADER_SIZE = 2 + 4 + 4 + 1;
+		private static final int NODE_HEADER_SIZE_2 = 4 + 4 + 4 + 2;
+		private static final int CHILD_POINTER_SIZE = 4;
+		private static final int CHILD_TABLE_ENTRY_SIZE = 2 + 2 + 4;
+		private static final int EOSTR_SIZE = 2;
+		// Max number of children and max node size (length of the node is uint16 in format 1, int in format 2)
+		private static final int MAX_CHILDREN_1 = 0xff;
+		private static final int MAX_CHILDREN_2 = 0xffff;
+		private static final int MAX_NODE_SIZE_1 = 0xffff;
+		private static final int MAX_NODE_SIZE_2 = Integer.MAX_VALUE;
+
+		private final int nodeFormat;
+		private final Charset charset;
+		// bytes per char for fixed length charsets, 0 otherwise
+		private final int bytesPerChar;
 		
-		return offset;
+		final List<RadixTreeNode<int[]>> nodes = new ArrayList<RadixTreeNode<int[]>>();
+		// size in bytes of the node
+		final int[] sizes;
+		// number of nodes in the subtree
+		final int[] subtreeNodes;
+		// absolute offset of the node
+		final int[] positions;
+		// pre-order numbers of the nodes in the order they are written
+		final int[] order;
+
+		Layout(int nodeFormat, Charset charset, RadixTreeNode<int[]> root) {
+			this.nodeFormat = nodeFormat;
+			this.charset = charset;
+			String name = charset.name();
+			this.bytesPerChar = "UTF-16LE".equals(name) || "UTF-16BE".equals(name) ? 2 : 0;
+			
+			// pre-order walk with explicit stack
+			ArrayList<RadixTreeNode<int[]>> stack = new ArrayList<RadixTreeNode<int[]>>();
+			stack.add(root);
+			while (!stack.isEmpty()) {
+				RadixTreeNode<int[]> node = stack.remove(stack.size() - 1);
+				nodes.add(node);
+				for (int i = node.childern.size() - 1; i >= 0; i--) {
+					stack.add(node.childern.get(i));
+				}
+			}
+			
+			// in reverse pre-order children are always measured before their parent
+			int n = nodes.size();
+			sizes = new int[n];
+			subtreeNodes = new int[n];
+			positions = new int[n];
+			order = new int[n];
+			for (int index = n - 1; index >= 0; index--) {
+				RadixTreeNode<int[]> node = nodes.get(index);
+				sizes[index] = nodeSize(node);
+				int childIndex = index + 1;
+				for (int i = 0, nChildren = node.childern.size(); i < nChildren; i++) {
+					childIndex += subtreeNodes[childIndex];
+				}
+				subtreeNodes[index] = childIndex - index;
+			}
+		}
+
+		/**
+		 * Node, then its children subtrees
+		 */
+		void placePreOrder(int offset) {
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+				positions[i] = offset;
+				offset += sizes[i];
+			}
+		}
+
+		/**
+		 * Cuts tree into clusters that fit into a block, starting at the root. Cluster is filled breadth first,
+		 * children that don't fit start clusters of their own. Root's cluster stays at the given offset
+		 * and takes the rest of the block, other clusters are packed into the following blocks, biggest first,
+		 * each into the block it fits best, so that only the tail of a block is wasted.
+		 */
+		void placeClustered(int offset, int blockSize) {
+			int n = order.length;
+			int nPlaced = 0;
+			int[] clusterRoots = new int[n];
+			// cluster's nodes are order[clusterStarts[i]] .. order[clusterStarts[i + 1] - 1]
+			int[] clusterStarts = new int[n + 1];
+			int[] clusterSizes = new int[n];
+			int nRoots = 1;
+			// breadth first queue of the current cluster, nodes are placed in the queue order
+			int[] queue = new int[n];
+			for (int r = 0; r < nRoots; r++) {
+				int head = 0;
+				int tail = 0;
+				int clusterSize = 0;
+				int maxClusterSize = r == 0 ? blockSize - offset % blockSize : blockSize;
+				clusterStarts[r] = nPlaced;
+				queue[tail++] = clusterRoots[r];
+				while (head < tail) {
+					int index = queue[head++];
+					if (clusterSize > 0 && clusterSize + sizes[index] > maxClusterSize) {
+						clusterRoots[nRoots++] = index;
+						continue;
+					}
+					order[nPlaced++] = index;
+					clusterSize += sizes[index];
+					int childIndex = index + 1;
+					for (int i = 0, nChildren = nodes.get(index).childern.size(); i < nChildren; i++) {
+						queue[tail++] = childIndex;
+						childIndex += subtreeNodes[childIndex];
+					}
+				}
+				clusterSizes[r] = clusterSize;
+			}
+			clusterStarts[nRoots] = nPlaced;
+
+			// size (high 32 bits) + cluster number (low 32 bits), sorting packed values sorts by size
+			long[] bySize = new long[nRoots - 1];
+			for (int r = 1; r < nRoots; r++) {
+				bySize[r - 1] = ((long) clusterSizes[r] << 32) | r;
+			}
+			Arrays.sort(bySize);
+
+			int[] clusterPositions = new int[nRoots];
+			clusterPositions[0] = offset;
+			int end = offset + clusterSizes[0];
+			// free space at the ends of blocks: free bytes => positions of the free space
+			TreeMap<Integer, List<Integer>> free = new TreeMap<Integer, List<Integer>>();
+			addFree(free, end, blockSize);
+			for (int i = bySize.length - 1; i >= 0; i--) {
+				int r = (int) bySize[i];
+				int size = clusterSizes[r];
+				Map.Entry<Integer, List<Integer>> fit = free.ceilingEntry(size);
+				if (fit != null) {
+					List<Integer> fitPositions = fit.getValue();
+					int position = fitPositions.remove(fitPositions.size() - 1);
+					if (fitPositions.isEmpty()) {
+						free.remove(fit.getKey());
+					}
+					clusterPositions[r] = position;
+					if (fit.getKey() > size) {
+						addFree(free, position + size, blockSize);
+					}
+				} else {
+					// new block
+					end += (blockSize - end % blockSize) % blockSize;
+					clusterPositions[r] = end;
+					end += size;
+					addFree(free, end, blockSize);
+				}
+			}
+
+			// clusters are written in the order of their positions
+			long[] byPosition = new long[nRoots];
+			for (int r = 0; r < nRoots; r++) {
+				byPosition[r] = ((long) clusterPositions[r] << 32) | r;
+			}
+			Arrays.sort(byPosition);
+			int[] clustered = order.clone();
+			nPlaced = 0;
+			for (long packed : byPosition) {
+				int r = (int) packed;
+				int position = clusterPositions[r];
+				for (int i = clusterStarts[r]; i < clusterStarts[r + 1]; i++) {
+					int index = clustered[i];
+					order[nPlaced++] = index;
+					positions[index] = position;
+					position += sizes[index];
+				}
+			}
+		}
+
+		/**
+		 * @throws IllegalStateException if nodes past 2GB got wrapped (negative) offsets
+		 */
+		void checkOffsets(int offset) {
+			long end = offset;
+			for (int i = 0; i < positions.length; i++) {
+				if (positions[i] < offset) {
+					throw new IllegalStateException("Radix doesn't fit into 32 bit offsets");
+				}
+				end = Math.max(end, (long) positions[i] + sizes[i]);
+			}
+			if (end > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Radix doesn't fit into 32 bit offsets, it ends at " + end);
+			}
+		}
+
+		// Registers free space from position to the end of its block
+		private static void addFree(TreeMap<Integer, List<Integer>> free, int position, int blockSize) {
+			int size = (blockSize - position % blockSize) % blockSize;
+			if (size > 0) {
+				List<Integer> sizePositions = free.get(size);
+				if (sizePositions == null) {
+					sizePositions = new ArrayList<Integer>();
+					free.put(size, sizePositions);
+				}
+				sizePositions.add(position);
+			}
+		}
+
+		/**
+		 * Counts distinct blocks on the path from the root to each real node
+		 */
+		void countBlocks(BlockStats stats) {
+			int blockSize = stats.getBlockSize();
+			// blocks of the nodes on the current path, with number of path nodes touching each
+			HashMap<Integer, Integer> pathBlocks = new HashMap<Integer, Integer>();
+			// pre-order numbers of the nodes on the current path
+			int[] path = new int[order.length];
+			int depth = 0;
+			for (int index = 0; index < order.length; index++) {
+				// leave subtrees that don't contain this node
+				while (depth > 0 && path[depth - 1] + subtreeNodes[path[depth - 1]] <= index) {
+					int parent = path[--depth];
+					for (int b = firstBlock(parent, blockSize); b <= lastBlock(parent, blockSize); b++) {
+						int count = pathBlocks.get(b);
+						if (count == 1) {
+							pathBlocks.remove(b);
+						} else {
+							pathBlocks.put(b, count - 1);
+						}
+					}
+				}
+				path[depth++] = index;
+				for (int b = firstBlock(index, blockSize); b <= lastBlock(index, blockSize); b++) {
+					Integer count = pathBlocks.get(b);
+					pathBlocks.put(b, count == null ? 1 : count + 1);
+				}
+				if (nodes.get(index).real) {
+					stats.addLookup(pathBlocks.size());
+				}
+			}
+		}
+
+		private int firstBlock(int index, int blockSize) {
+			return positions[index] / blockSize;
+		}
+
+		private int lastBlock(int index, int blockSize) {
+			return (positions[index] + sizes[index] - 1) / blockSize;
+		}
+
+		int nodeSize(RadixTreeNode<int[]> node) {
+			int nChildren = node.childern.size();
+			long size;
+			if (nodeFormat == NODE_FORMAT_2) {
+				checkChildren(nChildren, MAX_CHILDREN_2);
+				size = NODE_HEADER_SIZE_2 + nChildren * CHILD_TABLE_ENTRY_SIZE;
+			} else {
+				checkChildren(nChildren, MAX_CHILDREN_1);
+				size = NODE_HEADER_SIZE;
+			}
+			for (RadixTreeNode<int[]> child : node.childern) {
+				size += CHILD_POINTER_SIZE + keySize(child.key) + EOSTR_SIZE;
+			}
+			checkSize(size, nodeFormat == NODE_FORMAT_2 ? MAX_NODE_SIZE_2 : MAX_NODE_SIZE_1);
+			return (int) size;
+		}
+
+		private void checkChildren(int nChildren, int max) {
+			if (nChildren > max) {
+				throw new IllegalStateException("Node has " + nChildren + " children, node format " + nodeFormat
+						+ " supports at most " + max);
+			}
+		}
+
+		// rather than writing wrapped node length
+		private void checkSize(long size, int max) {
+			if (size > max) {
+				throw new IllegalStateException("Node is " + size + " bytes long, node format " + nodeFormat
+						+ " supports at most " + max);
+			}
+		}
+
+		int keySize(String key) {
+			if (bytesPerChar > 0) {
+				return key.length() * bytesPerChar;
+			}
+			return key.getBytes(charset).length;
+		}
 	}
 }
@@ -0,0 +1,282 @@
+package org.kartu.dict.stardict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to dictzip (.dict.dz) file: gzip file whose deflate stream is flushed every chunk
+ * of fixed uncompressed size, compressed sizes of the chunks are listed in "RA" extra field of the gzip header:
+ * 		version (uint16, 1)
+ * 		uncompressed chunk length (uint16)
+ * 		number of chunks (uint16)
+ * 		compressed length of each chunk (uint16 * number of chunks)
+ * (all little endian, as the rest of the gzip header).
+ *
+ * Compressed file is memory mapped, chunks are inflated on demand and kept in LRU cache of limited size
+ * ({@link StardictParser} reads articles in chunk order, so that chunks aren't inflated over and over).
+ * Chunk being read is inflated along with the following ones (articles are mostly read in file order)
+ * on worker threads, so that the next chunks are ready by the time they are needed.
+ *
+ * Thread safe, chunks are looked up under a lock, waiting for them and copying is done outside of it.
+ *
+ * @author kartu
+ */
+class DictzipData implements IDictData {
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int GZIP_HEADER_SIZE = 10;
+	// gzip trailer: crc32, uncompressed size mod 2^32
+	private static final int GZIP_TRAILER_SIZE = 4 + 4;
+	private static final int FLAG_HCRC = 2;
+	private static final int FLAG_EXTRA = 4;
+	private static final int FLAG_NAME = 8;
+	private static final int FLAG_COMMENT = 16;
+	private static final int RA_VERSION = 1;
+	// Chunks inflated ahead per worker thread
+	private static final int CHUNKS_PER_THREAD = 2;
+	// Inflated chunks kept in memory, articles that aren't in .idx order might need chunks read long ago
+	private static final int CACHE_SIZE = 64 * 1024 * 1024;
+	// Average number of times chunks are inflated before a warning is logged
+	private static final int MAX_INFLATIONS_PER_CHUNK = 2;
+
+	private final MappedData data;
+	private final int chunkLength;
+	// offset of each chunk in the compressed file, plus the end of the last one
+	private final long[] chunkOffsets;
+	private final long length;
+	private final ExecutorService inflaters;
+	private final int readAhead;
+	private final Map<Integer, Future<byte[]>> cache;
+	private final int maxCached;
+	private long nInflated;
+
+	private DictzipData(MappedData data, int chunkLength, long[] chunkOffsets, long length, int nThreads) {
+		this.data = data;
+		this.chunkLength = chunkLength;
+		this.chunkOffsets = chunkOffsets;
+		this.length = length;
+		this.readAhead = nThreads <= 1 ? 1 : nThreads * CHUNKS_PER_THREAD;
+		this.maxCached = Math.max(readAhead * 2, CACHE_SIZE / chunkLength);
+		this.cache = new LinkedHashMap<Integer, Future<byte[]>>(maxCached * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Future<byte[]>> eldest) {
+				return size() > maxCached;
+			}
+		};
+		this.inflaters = nThreads <= 1 ? null : Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int n = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "dictzip-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Reads chunk table of dictzip file
+	 *
+	 * @param nThreads number of threads inflating chunks, 1 means calling thread
+	 * @return null if file is a plain gzip file (has no chunk table)
+	 * @throws IOException if file is not a gzip file
+	 */
+	static DictzipData open(File file, int nThreads) throws IOException {
+		MappedData data = MappedData.map(file);
+		if (data.length() < GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE || getShort(data, 0) != GZIP_MAGIC) {
+			throw new IOException(file + " is not a gzip file");
+		}
+		int flags = data.get(3);
+		if ((flags & FLAG_EXTRA) == 0) {
+			return null;
+		}
+		// extra field is a list of (id1, id2, length, data) subfields
+		long extraEnd = GZIP_HEADER_SIZE + 2 + getShort(data, GZIP_HEADER_SIZE);
+		long position = GZIP_HEADER_SIZE + 2;
+		long ra = -1;
+		while (position + 4 <= extraEnd) {
+			int len = getShort(data, position + 2);
+			if (data.get(position) == 'R' && data.get(position + 1) == 'A') {
+				ra = position + 4;
+			}
+			position += 4 + len;
+		}
+		if (ra < 0) {
+			return null;
+		}
+		if (getShort(data, ra) != RA_VERSION) {
+			throw new IOException("Unsupported dictzip version of " + file + ": " + getShort(data, ra));
+		}
+		int chunkLength = getShort(data, ra + 2);
+		int nChunks = getShort(data, ra + 4);
+		if (chunkLength == 0) {
+			throw new IOException("Chunk length of " + file + " is 0");
+		}
+
+		// compressed data follows optional name, comment and header crc
+		position = extraEnd;
+		if ((flags & FLAG_NAME) != 0) {
+			position = data.indexOf((byte) 0, position) + 1;
+		}
+		if ((flags & FLAG_COMMENT) != 0) {
+			position = data.indexOf((byte) 0, position) + 1;
+		}
+		if ((flags & FLAG_HCRC) != 0) {
+			position += 2;
+		}
+		long[] chunkOffsets = new long[nChunks + 1];
+		chunkOffsets[0] = position;
+		for (int i = 0; i < nChunks; i++) {
+			chunkOffsets[i + 1] = chunkOffsets[i] + getShort(data, ra + 6 + i * 2);
+		}
+		if (chunkOffsets[nChunks] > data.length() - GZIP_TRAILER_SIZE) {
+			throw new IOException("Chunk table of " + file + " doesn't match its size");
+		}
+		// the trailer has the size mod 2^32, only the last chunk is shorter than chunk length
+		long isize = getShort(data, data.length() - 4) | (long) getShort(data, data.length() - 2) << 16;
+		long full = nChunks == 0 ? 0 : (long) (nChunks - 1) * chunkLength;
+		long length = full + ((isize - full) & 0xffffffffL);
+		if (length > (long) nChunks * chunkLength) {
+			throw new IOException("Size of " + file + " doesn't match its chunk table");
+		}
+		return new DictzipData(data, chunkLength, chunkOffsets, length, nThreads);
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * @return uncompressed length of the chunks, but the last one
+	 */
+	int getChunkLength() {
+		return chunkLength;
+	}
+
+	int getChunkCount() {
+		return chunkOffsets.length - 1;
+	}
+
+	@Override
+	public byte[] get(long position, int len) throws IOException {
+		if (position < 0 || len < 0 || position + len > length) {
+			throw new IndexOutOfBoundsException("Cannot read " + len + " bytes at " + position + ", data length is " + length);
+		}
+		byte[] result = new byte[len];
+		int done = 0;
+		while (done < len) {
+			long from = position + done;
+			int chunk = (int) (from / chunkLength);
+			int offset = (int) (from % chunkLength);
+			byte[] inflated = getChunk(chunk);
+			int n = Math.min(len - done, inflated.length - offset);
+			System.arraycopy(inflated, offset, result, done, n);
+			done += n;
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		if (inflaters != null) {
+			inflaters.shutdownNow();
+		}
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	// Inflated chunk, submits it and the following ones unless they are cached already
+	private byte[] getChunk(int chunk) throws IOException {
+		Future<byte[]> result;
+		synchronized (cache) {
+			result = cache.get(chunk);
+			for (int i = chunk, n = Math.min(chunk + readAhead, chunkOffsets.length - 1); i < n; i++) {
+				if (i == chunk ? result == null : !cache.containsKey(i)) {
+					Future<byte[]> future = submit(i);
+					cache.put(i, future);
+					if (i == chunk) {
+						result = future;
+					}
+				}
+			}
+		}
+		if (inflaters == null) {
+			// inflated by the first thread that needs it, no-op if it's done already
+			((FutureTask<byte[]>) result).run();
+		}
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			// failed chunk is not kept
+			synchronized (cache) {
+				cache.remove(chunk);
+			}
+			throw new IOException("Cannot inflate chunk " + chunk + ": " + e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating chunk " + chunk);
+		}
+	}
+
+	private Future<byte[]> submit(final int chunk) {
+		if (++nInflated == (long) (chunkOffsets.length - 1) * MAX_INFLATIONS_PER_CHUNK + 1) {
+			StardictParser.log.warn("Dictzip chunks are inflated over and over, " + maxCached + " of " + (chunkOffsets.length - 1)
+					+ " chunks fit into the cache");
+		}
+		Callable<byte[]> task = new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws DataFormatException {
+				return inflate(chunk);
+			}
+		};
+		if (inflaters != null) {
+			return inflaters.submit(task);
+		}
+		return new FutureTask<byte[]>(task);
+	}
+
+	// Chunks are flushed, so that each of them can be inflated on its own
+	private byte[] inflate(int chunk) throws DataFormatException {
+		long offset = chunkOffsets[chunk];
+		byte[] compressed = data.get(offset, (int) (chunkOffsets[chunk + 1] - offset));
+		byte[] result = new byte[(int) Math.min(chunkLength, length - (long) chunk * chunkLength)];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			int done = 0;
+			while (done < result.length) {
+				int n = inflater.inflate(result, done, result.length - done);
+				if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+					break;
+				}
+				done += n;
+			}
+			if (done != result.length) {
+				throw new DataFormatException("chunk is " + done + " bytes long instead of " + result.length);
+			}
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+	// Little endian uint16
+	private static int getShort(MappedData data, long position) {
+		return (data.get(position) & 0xff) | (data.get(position + 1) & 0xff) << 8;
+	}
+}
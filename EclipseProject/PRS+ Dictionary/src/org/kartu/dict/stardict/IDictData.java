@@ -0,0 +1,27 @@
+package org.kartu.dict.stardict;
+
+import java.io.IOException;
+
+/**
+ * Contents of the .dict file, articles are read by offset and length found in .idx
+ *
+ * @author kartu
+ */
+interface IDictData {
+	/**
+	 * @return uncompressed length of the data
+	 */
+	long length();
+
+	/**
+	 * Copies len bytes starting at the position
+	 *
+	 * @throws IndexOutOfBoundsException if data ends before
+	 */
+	byte[] get(long position, int len) throws IOException;
+
+	/**
+	 * Releases resources, data can't be read afterwards
+	 */
+	void close();
+}
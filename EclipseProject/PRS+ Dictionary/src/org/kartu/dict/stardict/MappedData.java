@@ -0,0 +1,116 @@
+package org.kartu.dict.stardict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only view of StarDict data: memory mapped file or in memory buffer.
+ * Single mapping can't be bigger than 2GB, bigger files are mapped in segments,
+ * reads crossing segment boundary are stitched together.
+ *
+ * @author kartu
+ */
+class MappedData implements IDictData {
+	// power of 2, so that segment of a position is a shift away
+	private static final int SEGMENT_BITS = 30;
+	static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	private final ByteBuffer[] segments;
+	private final long length;
+
+	/**
+	 * Wraps buffer (from its position to its limit)
+	 */
+	MappedData(ByteBuffer buffer) {
+		this.length = buffer.remaining();
+		this.segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer segment = buffer.duplicate();
+			segment.position(buffer.position() + (i << SEGMENT_BITS));
+			segment.limit((int) Math.min(segment.position() + (long) SEGMENT_SIZE, buffer.limit()));
+			segments[i] = segment.slice();
+		}
+	}
+
+	private MappedData(ByteBuffer[] segments, long length) {
+		this.segments = segments;
+		this.length = length;
+	}
+
+	/**
+	 * Maps the whole file, mapping stays valid after the file is closed
+	 */
+	static MappedData map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long length = channel.size();
+			ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long position = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+			}
+			return new MappedData(segments, length);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	byte get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) position & (SEGMENT_SIZE - 1));
+	}
+
+	/**
+	 * @return big endian unsigned int at the position
+	 */
+	long getUnsignedInt(long position) {
+		long result = 0;
+		for (int i = 0; i < 4; i++) {
+			result = (result << 8) | (get(position + i) & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * @return position of the first b at or after from, -1 if there is none
+	 */
+	long indexOf(byte b, long from) {
+		for (long position = from; position < length; position++) {
+			if (get(position) == b) {
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public byte[] get(long position, int len) {
+		if (position < 0 || len < 0 || position + len > length) {
+			throw new IndexOutOfBoundsException("Cannot read " + len + " bytes at " + position + ", data length is " + length);
+		}
+		byte[] result = new byte[len];
+		int done = 0;
+		while (done < len) {
+			long from = position + done;
+			ByteBuffer segment = segments[(int) (from >>> SEGMENT_BITS)].duplicate();
+			segment.position((int) from & (SEGMENT_SIZE - 1));
+			int n = Math.min(len - done, segment.remaining());
+			segment.get(result, done, n);
+			done += n;
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		// mappings are released by GC once unreachable
+	}
+}
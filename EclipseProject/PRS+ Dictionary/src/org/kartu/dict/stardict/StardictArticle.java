@@ -1,12 +1,44 @@
 package org.kartu.dict.stardict;
 
+import java.io.StringReader;
+
 import org.kartu.dict.Article;
+import org.kartu.dict.xdxf.visual.xml.AR;
 
 public class StardictArticle extends Article {
+	// XDXF markup of 'x' type articles, kept until rendered
+	private String xdxf;
+
 	public StardictArticle(String keyword, String translation, String shortTranslation) {
 		this.keyword = keyword;
 		this.translation = translation;
 		this.shortTranslation = shortTranslation;
+		this.source = translation;
+	}
+
+	/**
+	 * Creates article of XDXF type, conversion is deferred until translation is requested.
+	 */
+	public StardictArticle(String keyword, String xdxf) {
+		this.keyword = keyword;
+		this.xdxf = xdxf;
+		this.source = xdxf;
+	}
+
+	@Override
+	protected void render() {
+		if (xdxf != null) {
+			try {
+				this.translation = AR.getUnmarshaller().unmarshal(
+						new StringReader("<ar>" + xdxf + "</ar>")).toString();
+			} catch (Exception e) {
+				throw new RuntimeException("[" + xdxf + "]", e);
+			}
+			this.shortTranslation = this.translation;
+			// markup isn't kept, it can be as big as the translation
+			xdxf = null;
+			source = null;
+		}
 	}
 
 }
@@ -1,46 +1,83 @@
 package org.kartu.dict.stardict;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 import org.kartu.dict.DictionaryParserException;
+import org.kartu.dict.IArticleRange;
 import org.kartu.dict.IDictionaryArticle;
-import org.kartu.dict.IDictionaryParser;
-import org.kartu.dict.xdxf.visual.xml.AR;
+import org.kartu.dict.ISplittableParser;
 
-public class StardictParser implements IDictionaryParser  {
+/**
+ * Parser of StarDict dictionaries (.ifo, .idx and .dict or .dict.dz files).
+ *
+ * Both 32 and 64 bit (idxoffsetbits=64) .idx offsets are supported.
+ * .idx and uncompressed .dict are memory mapped (see {@link MappedData}), entries are decoded straight
+ * from the mapped files, so opening even a huge dictionary costs next to no heap.
+ * Chunks of dictzip .dict.dz are inflated on demand, in parallel (see {@link DictzipData}),
+ * plain gzip .dict.dz is inflated into memory. Entries of dictzip dictionaries are read in the order of
+ * the chunks their articles start in (.dict is often not in .idx order), so that chunks are inflated one after another,
+ * order of the articles doesn't matter as converter sorts them anyway.
+ * .idx entries are self delimiting and articles are independent, {@link #split()} scans entry boundaries,
+ * so that ranges of entries can be read in parallel.
+ *
+ * @author kartu
+ */
+public class StardictParser implements ISplittableParser  {
 	private static final String UTF_8 = "UTF-8";
 	static final Logger log = Logger.getLogger(StardictParser.class);
 	public static final String EXTENSION = ".ifo";
 	private Map<String, String> ifoMap;
 	private ArticleType articleType;
-	private byte[] dictData;
-	private byte[] idxData;
-	private int cursor;
+	private IDictData dictData;
+	private MappedData idxData;
+	private long cursor;
+	// positions of .idx entries in reading order, null means .idx order (from the cursor on)
+	private long[] entries;
+	private int nextEntry;
+	// offset (uint32 or uint64, see idxoffsetbits) and length (uint32) of the article follow the keyword
+	private int idxOffsetSize = 4;
+	// Entries between boundaries ranges can be split at
+	private static final int ENTRIES_PER_STEP = 64;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
 
 	enum ArticleType {XDXF, TEXT};
 	
+	/**
+	 * @param nThreads number of threads inflating dictzip chunks, 1 means the parsing thread
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
 	byte[] readFile(String path) throws IOException {
 		File f = new File(path);
 		if (!f.isFile()) {
-			fatal("Internal error: File "  + path + " doesn't exist!");
-			return null;
+			throw new FileNotFoundException("Internal error: File "  + path + " doesn't exist!");
 		}
 		
-		int size = (int) f.length();
-		byte[] buf = new byte[size];
-		FileInputStream fin = new FileInputStream(f);
-		fin.read(buf);
-
-		fin.close();
+		if (f.length() > Integer.MAX_VALUE) {
+			throw new IOException("File " + path + " is too big to be read into memory");
+		}
+		byte[] buf = new byte[(int) f.length()];
+		DataInputStream fin = new DataInputStream(new FileInputStream(f));
+		try {
+			fin.readFully(buf);
+		} finally {
+			fin.close();
+		}
 		
 		return buf;
 	}
@@ -51,8 +88,13 @@ public class StardictParser implements IDictionaryParser  {
 		ifoMap = parseIFO(ifoPath);
 		
 		// Check if we can  parse it at all
-		if (ifoMap.get("idxoffsetbits") != null && !"32".equals("idxoffsetbits")) {
-			fatal("idxoffsetbits of length 64 is not supported!");
+		String offsetBits = ifoMap.get("idxoffsetbits");
+		if (offsetBits == null || "32".equals(offsetBits.trim())) {
+			this.idxOffsetSize = 4;
+		} else if ("64".equals(offsetBits.trim())) {
+			this.idxOffsetSize = 8;
+		} else {
+			throw new DictionaryParserException("Unsupported idxoffsetbits: " + offsetBits);
 		}
 		
 		String sequenceType = ifoMap.get("sametypesequence");
@@ -61,7 +103,7 @@ public class StardictParser implements IDictionaryParser  {
 		} else if ("t".equals(sequenceType) || "m".equals(sequenceType)) {
 			this.articleType = ArticleType.TEXT;
 		} else {
-			fatal("Unsuported article type:"  + sequenceType);
+			throw new DictionaryParserException("Unsuported article type:"  + sequenceType);
 		}
 
 		
@@ -80,34 +122,108 @@ public class StardictParser implements IDictionaryParser  {
 		dictGzPath = dictPath + ".dz";
 			
 		if (! new File(idxPath).exists()) {
-			fatal("Cannot file .idx file: " + idxPath);
+			throw new DictionaryParserException("Cannot file .idx file: " + idxPath);
 		}
 
-		InputStream dzIn = null;
+		if (! new File(dictPath).exists() && ! new File(dictGzPath).exists()) {
+			throw new DictionaryParserException("Cannot find neither .dict nor dict.dz file: " + dictPath);
+		}
 		
 		if (new File(dictPath).exists()) {
-			dzIn = new FileInputStream(dictPath);
-		} else if (new File(dictGzPath).exists()) {
-			dzIn = new GZIPInputStream(new FileInputStream(dictGzPath));
+			this.dictData = MappedData.map(new File(dictPath));
+		} else {
+			this.dictData = DictzipData.open(new File(dictGzPath), nThreads);
 		}
-		if (! new File(dictPath).exists() && ! new File(dictGzPath).exists()) {
-			fatal("Cannot find neither .dict nor dict.dz file: " + dictPath);
+		if (this.dictData == null) {
+			// Not a dictzip file, read dz file into memory
+			InputStream dzIn = new GZIPInputStream(new FileInputStream(dictGzPath));
+			try {
+				ByteArrayOutputStream bout = new ByteArrayOutputStream();
+				byte[] buf = new byte[64 * 1024];
+				int n;
+				while ((n  = dzIn.read(buf)) > 0) {
+					bout.write(buf, 0, n);
+				}
+				this.dictData = new MappedData(ByteBuffer.wrap(bout.toByteArray()));
+			} finally {
+				dzIn.close();
+			}
 		}
 		
-		// Read dz file into memory
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		byte[] buf = new byte[1024];
-		int n;
-		while ((n  = dzIn.read(buf)) > 0) {
-			bout.write(buf, 0, n);
-		}
-		this.dictData = bout.toByteArray();
-		
-		dzIn.close();
-		
-		// Read index file
-		this.idxData = readFile(idxPath);
+		// Map index file
+		this.idxData = MappedData.map(new File(idxPath));
 		this.cursor = 0;
+		if (dictData instanceof DictzipData) {
+			DictzipData dictzip = (DictzipData) dictData;
+			entries = orderByChunk(dictzip.getChunkLength(), dictzip.getChunkCount());
+			nextEntry = 0;
+		}
+	}
+
+	/**
+	 * Orders .idx entries by the dictzip chunk their article starts in (counting sort, entries of a chunk
+	 * keep .idx order). Entry of the same keyword as the previous one (they are adjacent in .idx) doesn't go
+	 * before it, so that converter still merges them in .idx order.
+	 *
+	 * @return positions of the entries in reading order
+	 */
+	private long[] orderByChunk(int chunkLength, int nChunks) {
+		// the first pass counts entries of each chunk, the second one places them
+		int[] starts = new int[nChunks + 2];
+		long[] result = null;
+		for (int pass = 0; pass < 2; pass++) {
+			// the first entry of the current keyword
+			long group = -1;
+			long groupEnd = -1;
+			int previousChunk = 0;
+			long position = 0;
+			long n;
+			while (position < idxData.length() && (n = idxData.indexOf((byte) 0, position)) >= 0) {
+				long offset = getArticleOffset(n);
+				// out of range offsets are reported once the article is read
+				int chunk = offset < 0 || offset / chunkLength >= nChunks ? nChunks : (int) (offset / chunkLength);
+				if (group >= 0 && sameKeyword(group, groupEnd, position, n)) {
+					chunk = Math.max(chunk, previousChunk);
+				} else {
+					group = position;
+					groupEnd = n;
+				}
+				previousChunk = chunk;
+				if (pass == 0) {
+					starts[chunk + 1]++;
+				} else {
+					result[starts[chunk]++] = position;
+				}
+				position = n + idxOffsetSize + 4 + 1;
+			}
+			if (pass == 0) {
+				for (int i = 1; i < starts.length; i++) {
+					starts[i] += starts[i - 1];
+				}
+				result = new long[starts[starts.length - 1]];
+			}
+		}
+		return result;
+	}
+
+	// Keywords of two .idx entries (keyword start, terminating zero) are the same
+	private boolean sameKeyword(long entry1, long n1, long entry2, long n2) {
+		if (n1 - entry1 != n2 - entry2) {
+			return false;
+		}
+		for (long i = 0; i < n1 - entry1; i++) {
+			if (idxData.get(entry1 + i) != idxData.get(entry2 + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Article offset of .idx entry, follows zero terminating its keyword
+	private long getArticleOffset(long n) {
+		return idxOffsetSize == 8
+				? idxData.getUnsignedInt(n + 1) << 32 | idxData.getUnsignedInt(n + 5)
+				: idxData.getUnsignedInt(n + 1);
 	}
 
 	private Map<String, String> parseIFO(String ifoPath) throws IOException {
@@ -126,53 +242,157 @@ public class StardictParser implements IDictionaryParser  {
 		return result;
 	}
 
-	private void fatal(String msg) {
-		System.out.println(msg);
-		System.exit(1);
+	@Override
+	public IDictionaryArticle getNext() throws DictionaryParserException {
+		if (entries != null) {
+			if (nextEntry == entries.length) {
+				return null;
+			}
+			long entry = entries[nextEntry++];
+			return readArticle(entry, idxData.indexOf((byte) 0, entry));
+		}
+		if (idxData.length() > cursor) {
+			long n = idxData.indexOf((byte) 0, cursor);
+			if (n >= 0) {
+				IDictionaryArticle result = readArticle(cursor, n);
+				cursor = n + idxOffsetSize + 4 + 1;
+				return result;
+			}
+		}
+		return null;
 	}
 
+	/**
+	 * Scans boundaries of .idx entries not read yet, every {@link #ENTRIES_PER_STEP}-th entry
+	 * is a point the range can be split at (boundaries are indices of {@link #entries}, if entries are reordered)
+	 */
 	@Override
-	public IDictionaryArticle getNext() throws DictionaryParserException {
+	public IArticleRange split() throws DictionaryParserException {
+		if (entries != null) {
+			long[] boundaries = new long[(entries.length - nextEntry + ENTRIES_PER_STEP - 1) / ENTRIES_PER_STEP + 1];
+			for (int i = 0; i < boundaries.length; i++) {
+				boundaries[i] = Math.min(nextEntry + (long) i * ENTRIES_PER_STEP, entries.length);
+			}
+			nextEntry = entries.length;
+			return new IdxRange(boundaries, 0, boundaries.length - 1, boundaries[0]);
+		}
+		List<Long> steps = new ArrayList<Long>();
+		long position = cursor;
+		long nEntries = 0;
+		while (position < idxData.length()) {
+			if (nEntries % ENTRIES_PER_STEP == 0) {
+				steps.add(position);
+			}
+			long n = idxData.indexOf((byte) 0, position);
+			if (n < 0) {
+				// the same as getNext(), unterminated keyword ends the index
+				break;
+			}
+			position = n + idxOffsetSize + 4 + 1;
+			nEntries++;
+		}
+		steps.add(position);
+		long[] boundaries = new long[steps.size()];
+		for (int i = 0; i < boundaries.length; i++) {
+			boundaries[i] = steps.get(i);
+		}
+		cursor = idxData.length();
+		return new IdxRange(boundaries, 0, boundaries.length - 1, boundaries[0]);
+	}
+
+	/**
+	 * Range of .idx entries between two boundaries found by {@link StardictParser#split()}
+	 */
+	private class IdxRange implements IArticleRange {
+		// shared by all ranges of the split
+		private final long[] boundaries;
+		// the first boundary not passed yet, the last boundary (end of the range)
+		private int first;
+		private final int last;
+		private long position;
+
+		IdxRange(long[] boundaries, int first, int last, long position) {
+			this.boundaries = boundaries;
+			this.first = first;
+			this.last = last;
+			this.position = position;
+		}
+
+		@Override
+		public IDictionaryArticle next() throws DictionaryParserException {
+			if (position >= boundaries[last]) {
+				return null;
+			}
+			if (entries != null) {
+				long entry = entries[(int) position++];
+				return readArticle(entry, idxData.indexOf((byte) 0, entry));
+			}
+			long n = idxData.indexOf((byte) 0, position);
+			IDictionaryArticle result = readArticle(position, n);
+			position = n + idxOffsetSize + 4 + 1;
+			return result;
+		}
+
+		@Override
+		public IArticleRange trySplit() {
+			while (first < last && boundaries[first] < position) {
+				first++;
+			}
+			if (last - first < 2) {
+				return null;
+			}
+			int mid = (first + last) >>> 1;
+			IdxRange prefix = new IdxRange(boundaries, first, mid, position);
+			first = mid;
+			position = boundaries[mid];
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return (long) (last - first) * ENTRIES_PER_STEP;
+		}
+	}
+
+	/**
+	 * Decodes .idx entry and reads its article, thread safe
+	 *
+	 * @param entry offset of the entry
+	 * @param n offset of zero terminating its keyword
+	 */
+	private IDictionaryArticle readArticle(long entry, long n) throws DictionaryParserException {
 		String keyword;
 		String translation = null;
-		
-		if (idxData.length > cursor) {
-			for (int n = cursor; n < idxData.length; n++) {
-				if (idxData[n] == 0) {
-					try {
-						keyword = new String(idxData, cursor, n - cursor, UTF_8);
-						// article offset
-						int offset = 256*256*256 * (idxData[n+1] & 0xff) +
-									256*256 * (idxData[n+2] & 0xff) +
-									256 * (idxData[n+3] & 0xff)
-									+ (idxData[n+4] & 0xff);
-						// article length
-						int len = 256*256*256 * (idxData[n+5] & 0xff) +
-								256*256 * (idxData[n+6] & 0xff) +
-								256 * (idxData[n+7] & 0xff)
-								+ (idxData[n+8] & 0xff);
-
-						translation = new String(dictData, offset, len, UTF_8);
-						if (articleType == ArticleType.XDXF) {
-							// Convert XDXF
-							translation = "<ar>" + translation + "</ar>";
-							translation = AR.unmarshaller.unmarshal(
-									new StringReader(translation)).toString();
-						}
-						
-						cursor = n + 8 + 1;
-						return new StardictArticle(keyword, translation, translation);
-					} catch (Exception e) {
-						throw new RuntimeException("[" + translation + "]", e);
-					}
-				}
+		try {
+			keyword = new String(idxData.get(entry, (int) (n - entry)), UTF_8);
+			long offset = getArticleOffset(n);
+			// article length
+			long len = idxData.getUnsignedInt(n + 1 + idxOffsetSize);
+			if (len > Integer.MAX_VALUE || offset < 0) {
+				throw new DictionaryParserException("Article of " + keyword + " is out of range: " + offset + ", " + len);
+			}
+
+			translation = new String(dictData.get(offset, (int) len), UTF_8);
+			
+			if (articleType == ArticleType.XDXF) {
+				// XDXF is converted when translation is requested
+				return new StardictArticle(keyword, translation);
 			}
+			return new StardictArticle(keyword, translation, translation);
+		} catch (DictionaryParserException e) {
+			// already says what's wrong
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("[" + translation + "]", e);
 		}
-		return null;
 	}
 
 	@Override
 	public void close() {
-		// nothing to close
+		if (dictData != null) {
+			dictData.close();
+			dictData = null;
+		}
+		idxData = null;
 	}
 }
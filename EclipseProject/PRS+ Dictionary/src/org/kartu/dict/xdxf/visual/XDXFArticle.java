@@ -6,10 +6,21 @@ import org.kartu.dict.Article;
 import org.kartu.dict.xdxf.visual.xml.AR;
 
 public class XDXFArticle extends Article {
+	// Parsed article, kept until rendered
+	private AR ar;
+
 	public XDXFArticle(AR ar) {
 		List<String> keywords = ar.getKeywords();
 		this.keyword =  keywords.size() > 0 ? (keywords.get(0)).trim() : null;
-		this.translation = ar.getTranslation();
-		this.shortTranslation = ar.getShortTranslation();
+		this.ar = ar;
+	}
+
+	@Override
+	protected void render() {
+		if (ar != null) {
+			this.translation = ar.getTranslation();
+			this.shortTranslation = ar.getShortTranslation();
+			ar = null;
+		}
 	}
 }
@@ -47,7 +47,7 @@ public class XDXFParser implements IDictionaryParser {
 				if (this.xmlStreamReader.isStartElement()) {
 			    	String tagName = this.xmlStreamReader.getLocalName();
 			    	if ("ar".equals(tagName)) {
-						AR ar = (AR) AR.unmarshaller.unmarshal(this.xmlStreamReader);
+						AR ar = (AR) AR.getUnmarshaller().unmarshal(this.xmlStreamReader);
 						return new XDXFArticle(ar);
 			    	}
 				}
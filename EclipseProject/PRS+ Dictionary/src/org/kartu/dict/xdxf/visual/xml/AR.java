@@ -25,26 +25,45 @@ public class AR {
 	@XmlAnyElement (lax=true) @XmlMixed
 	public List<Object> elements;
 	
-	public static Unmarshaller unmarshaller;
+	// JAXB context is thread safe, unmarshallers are not, hence one per thread
+	private static final JAXBContext context;
+	private static final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<Unmarshaller>() {
+		@Override
+		protected Unmarshaller initialValue() {
+			try {
+				Unmarshaller result = context.createUnmarshaller();
+				result.setEventHandler(new ValidationEventHandler() {
+					public boolean handleEvent(ValidationEvent event) {
+						System.out.println("Parse error: " + event);
+						return false;
+					}
+					
+				});
+				return result;
+			} catch (JAXBException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
 	static {
 		try {
-			JAXBContext ctx = JAXBContext.newInstance(ABR.class, AR.class, B.class, C.class, CO.class,
+			context = JAXBContext.newInstance(ABR.class, AR.class, B.class, C.class, CO.class,
 						DEF.class, DTRN.class, EX.class, HEAD.class, I.class, K.class, KREF.class, 
 						NU.class, OPT.class, POS.class, SUP.class, SMALL.class, TR.class);
-			unmarshaller = ctx.createUnmarshaller();
-			unmarshaller.setEventHandler(new ValidationEventHandler() {
-				public boolean handleEvent(ValidationEvent event) {
-					System.out.println("Parse error: " + event);
-					return false;
-				}
-				
-			});
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * @return unmarshaller owned by the calling thread
+	 */
+	public static Unmarshaller getUnmarshaller() {
+		return unmarshallers.get();
+	}
+	
 	public static void main(String[] args) throws JAXBException {
+		Unmarshaller unmarshaller = getUnmarshaller();
 		unmarshaller.setEventHandler(new ValidationEventHandler() {
 			public boolean handleEvent(ValidationEvent event) {
 				System.out.println(event);